@@ -0,0 +1,81 @@
+package benchmark;
+
+import config.Config;
+import message.HeartbeatMessage;
+import message.MessageCodec;
+import message.MessageType;
+import service.NodeManager;
+import service.PacketHandler;
+import service.Transport;
+import simulator.Simulation;
+import simulator.VirtualTime;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// one NodeManager that already knows `members` others, and has heard from each of them so it
+// talks the current wire version to all, on virtual time and a transport that only counts:
+// a benchmark measures the protocol code and not sockets or sleeping threads
+final class Cluster {
+    final VirtualTime time = new VirtualTime();
+    final CountingTransport transport = new CountingTransport();
+    final InetSocketAddress[] addresses;
+    final NodeManager node;
+    private final PrintStream out = System.out;
+
+    Cluster(int members, Config config) {
+        // the node logs every change on stdout, which would be most of what we measure
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        addresses = new InetSocketAddress[members];
+        for (int i = 0; i < members; i++) {
+            addresses[i] = Simulation.addressOf(i + 1);
+        }
+        node = new NodeManager(Simulation.addressOf(0), config, transport, time.newScheduler(), new Random(42));
+        for (InetSocketAddress address : addresses) {
+            node.addSeed(address);
+        }
+        node.start();
+        HeartbeatMessage empty = new HeartbeatMessage();
+        empty.setType(MessageType.DELTA);
+        ByteBuffer packet = ByteBuffer.allocate(MessageCodec.MAX_PACKET_SIZE);
+        MessageCodec.encode(empty, MessageCodec.CURRENT_VERSION, packet);
+        packet.flip();
+        for (InetSocketAddress address : addresses) {
+            deliver(address, packet.duplicate());
+        }
+    }
+
+    // hands the packet to the node as if it had arrived from the sender
+    void deliver(InetSocketAddress sender, ByteBuffer packet) {
+        transport.handler.onPacket(sender, packet);
+    }
+
+    void close() {
+        node.stop();
+        System.setOut(out);
+    }
+
+    static final class CountingTransport implements Transport {
+        PacketHandler handler;
+        long packets = 0;
+        long bytes = 0;
+
+        @Override
+        public void start(PacketHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void send(InetSocketAddress target, ByteBuffer packet) {
+            packets++;
+            bytes += packet.remaining();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package benchmark;
+
+import message.HeartbeatMessage;
+import message.MessageCodec;
+import message.MessageType;
+import node.NodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import simulator.Simulation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// encode and decode of one datagram, both the full list HEARTBEAT that version 1 peers get and
+// the DIGEST of a round. A packet holds at most about a hundred entries, so unlike the other
+// benchmarks this one does not scale to the cluster size
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"10", "30", "90"})
+    public int entries;
+
+    private final HeartbeatMessage heartbeat = new HeartbeatMessage();
+    private final HeartbeatMessage digest = new HeartbeatMessage();
+    private final HeartbeatMessage decoded = new HeartbeatMessage();
+    private final ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_PACKET_SIZE);
+    private ByteBuffer encodedHeartbeat;
+    private ByteBuffer encodedDigest;
+
+    @Setup
+    public void setup() {
+        heartbeat.setType(MessageType.HEARTBEAT);
+        digest.setType(MessageType.DIGEST);
+        digest.addEntry(Simulation.addressOf(0), 1_000_000);
+        for (int i = 1; i <= entries; i++) {
+            heartbeat.addEntry(Simulation.addressOf(i), 1_000_000 + i);
+            digest.addDigest(NodeId.of(Simulation.addressOf(i)), 1_000_000 + i);
+        }
+        digest.setRange(NodeId.MIN, NodeId.MAX);
+        encodedHeartbeat = encode(heartbeat);
+        encodedDigest = encode(digest);
+    }
+
+    private static ByteBuffer encode(HeartbeatMessage message) {
+        ByteBuffer out = ByteBuffer.allocate(MessageCodec.MAX_PACKET_SIZE);
+        MessageCodec.encode(message, MessageCodec.CURRENT_VERSION, out);
+        out.flip();
+        return out;
+    }
+
+    @Benchmark
+    public int encodeHeartbeat() {
+        buffer.clear();
+        MessageCodec.encode(heartbeat, MessageCodec.MIN_VERSION, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public int decodeHeartbeat() {
+        MessageCodec.decode(encodedHeartbeat.duplicate(), decoded);
+        return decoded.getEntryCount();
+    }
+
+    @Benchmark
+    public int encodeDigest() {
+        buffer.clear();
+        MessageCodec.encode(digest, MessageCodec.CURRENT_VERSION, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public int decodeDigest() {
+        MessageCodec.decode(encodedDigest.duplicate(), decoded);
+        return decoded.getDigestCount();
+    }
+}
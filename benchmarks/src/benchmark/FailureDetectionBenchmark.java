@@ -0,0 +1,56 @@
+package benchmark;
+
+import config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// one failure detection pass with every member healthy, the common case: the pass only has to
+// find out that no deadline is due, however many members there are. Each invocation moves the
+// virtual clock one detection period on, which runs exactly the detection task (the rounds are
+// stopped), so the wheel's cascades are part of the measurement as they come due
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FailureDetectionBenchmark {
+    private static final Duration PERIOD = Duration.ofMillis(100);
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int members;
+
+    private Cluster cluster;
+
+    @Setup
+    public void setup() {
+        // a failure timeout no benchmark run reaches, so members stay healthy without heartbeats
+        cluster = new Cluster(members, new Config(Duration.ofDays(365), Duration.ofDays(365),
+                Duration.ofSeconds(1), PERIOD, 3));
+        cluster.node.stopHeartbeats();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+
+    @Benchmark
+    public long detect() {
+        cluster.time.runFor(PERIOD.toNanos());
+        return cluster.time.getExecutedTasks();
+    }
+}
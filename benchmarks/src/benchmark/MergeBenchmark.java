@@ -0,0 +1,95 @@
+package benchmark;
+
+import config.Config;
+import message.HeartbeatMessage;
+import message.MessageCodec;
+import message.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// merging a received DELTA into the membership, the receive path every gossip round ends in.
+// Each packet carries as many entries as fit, for members the node already knows:
+// withNews bumps their sequences so every entry is an update (and re-arms a deadline),
+// withoutNews replays the same packet so every entry is only a lookup and a compare.
+// The packet is encoded in the benchmark, see CodecBenchmark for what that costs alone
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int members;
+
+    private Cluster cluster;
+    private final HeartbeatMessage delta = new HeartbeatMessage();
+    private final ByteBuffer packet = ByteBuffer.allocate(MessageCodec.MAX_PACKET_SIZE);
+    private ByteBuffer unchanged;
+    private int cursor = 0;
+    private long sequence = 1;
+
+    @Setup
+    public void setup() {
+        cluster = new Cluster(members, new Config(Duration.ofSeconds(30), Duration.ofSeconds(30),
+                Duration.ofSeconds(1), Duration.ofSeconds(1), 3));
+        fill();
+        unchanged = ByteBuffer.allocate(MessageCodec.MAX_PACKET_SIZE);
+        MessageCodec.encode(delta, MessageCodec.CURRENT_VERSION, unchanged);
+        unchanged.flip();
+        cluster.deliver(cluster.addresses[0], unchanged.duplicate());
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+
+    // the next packet full of members, starting where the last packet stopped
+    private void fill() {
+        delta.clear();
+        delta.setType(MessageType.DELTA);
+        int budget = MessageCodec.MAX_PACKET_SIZE - MessageCodec.overhead(MessageType.DELTA);
+        while (true) {
+            int index = cursor % members;
+            int size = MessageCodec.entrySize(4, cluster.addresses[index].getPort(), sequence);
+            if (size > budget || delta.getEntryCount() == members) {
+                break;
+            }
+            delta.addEntry(cluster.addresses[index], sequence);
+            budget -= size;
+            cursor++;
+        }
+    }
+
+    @Benchmark
+    public int withNews() {
+        sequence++;
+        fill();
+        packet.clear();
+        MessageCodec.encode(delta, MessageCodec.CURRENT_VERSION, packet);
+        packet.flip();
+        cluster.deliver(cluster.addresses[0], packet);
+        return delta.getEntryCount();
+    }
+
+    @Benchmark
+    public int withoutNews() {
+        cluster.deliver(cluster.addresses[0], unchanged.duplicate());
+        return members;
+    }
+}
@@ -0,0 +1,59 @@
+package benchmark;
+
+import config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// the sending side of a round: picking the peers, paging the digest out of the member table,
+// encoding it once per peer. aliveMembers is the O(n) snapshot the public API hands out, what
+// picking peers used to cost before the PeerSelector
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int members;
+
+    private Cluster cluster;
+
+    @Setup
+    public void setup() {
+        cluster = new Cluster(members, new Config(Duration.ofSeconds(30), Duration.ofSeconds(30),
+                Duration.ofSeconds(1), Duration.ofSeconds(1), 3));
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+
+    @Benchmark
+    public long round() {
+        cluster.node.sendHeartbeats();
+        return cluster.transport.packets;
+    }
+
+    @Benchmark
+    public int aliveMembers() {
+        List<InetSocketAddress> alive = cluster.node.getAliveMembers();
+        return alive.size();
+    }
+}
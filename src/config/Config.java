@@ -21,15 +21,30 @@ public class Config implements Serializable {
     // how many peers to update every interval
     public final int peersToUpdatePerInterval;
 
+    // SWIM probing only: how long to wait for the ack of a direct ping before asking others
+    public final Duration probeTimeout;
+
+    // SWIM probing only: how many members to ask to ping a member that did not ack us
+    public final int indirectProbes;
+
 
     public Config(Duration nodeFailureTimeout, Duration nodeCleanupTimeout,
                         Duration updateFrequency, Duration failureDetectionFrequency,
                         int peersToUpdatePerInterval) {
+        this(nodeFailureTimeout, nodeCleanupTimeout, updateFrequency, failureDetectionFrequency,
+                peersToUpdatePerInterval, failureDetectionFrequency.dividedBy(3), 3);
+    }
+
+    public Config(Duration nodeFailureTimeout, Duration nodeCleanupTimeout,
+                        Duration updateFrequency, Duration failureDetectionFrequency,
+                        int peersToUpdatePerInterval, Duration probeTimeout, int indirectProbes) {
         this.nodeFailureTimeout = nodeFailureTimeout;
         this.nodeCleanupTimeout = nodeCleanupTimeout;
         this.updateFrequency = updateFrequency;
         this.failureDetectionFrequency = failureDetectionFrequency;
         this.peersToUpdatePerInterval = peersToUpdatePerInterval;
+        this.probeTimeout = probeTimeout;
+        this.indirectProbes = indirectProbes;
     }
 
 }
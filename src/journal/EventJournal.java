@@ -0,0 +1,224 @@
+package journal;
+
+import timer.ExecutorScheduler;
+import timer.Scheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// binary membership event journal, the replacement for printing every heartbeat
+// record() fills a slot of a preallocated ring of fixed size records (timestamp, event, member,
+// value, extra), claimed with one CAS the way BoundedQueue does it: no lock, no allocation, no
+// formatting. A drain task copies the records into RECORD_SIZE byte blocks and hands them to the
+// sink in batches. When the sink falls behind and the ring fills up new records are dropped and
+// counted, the gossip threads never wait for the disk.
+// Below the journal's level record() returns after one compare, callers that need to compute
+// an argument first check isEnabled()
+//
+// record layout, big endian:
+//   time    8 bytes  the journal clock's nanoTime()
+//   member  8 bytes  NodeId of the member (or peer) the event is about
+//   value   8 bytes  see JournalEvent
+//   extra   4 bytes  see JournalEvent
+//   event   1 byte   JournalEvent
+//   padding 3 bytes
+public class EventJournal {
+    public static final int RECORD_SIZE = 32;
+
+    // records nothing and never starts a thread, the default of every node
+    public static final EventJournal OFF = new EventJournal();
+
+    private static final long DRAIN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CLOCK_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BATCH_RECORDS = 1024;
+
+    private final int level;
+    private final JournalSink sink;
+    private final Scheduler drainer;
+    private final boolean ownsDrainer;
+
+    // the ring, one column per field, and whose turn each cell is
+    private final long[] times;
+    private final long[] members;
+    private final long[] values;
+    private final int[] extras;
+    private final byte[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only touched by the drain task
+    private long head = 0;
+    private long lastClockNanos = 0;
+    private boolean clockWritten = false;
+    private final ByteBuffer batch;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed = false;
+    // guarded by this, so a drain still running on the drainer cannot race the final one
+    private boolean sinkClosed = false;
+
+    private EventJournal() {
+        level = JournalLevel.OFF.ordinal();
+        sink = null;
+        drainer = null;
+        ownsDrainer = false;
+        times = members = values = new long[0];
+        extras = new int[0];
+        events = new byte[0];
+        sequences = new AtomicLongArray(0);
+        mask = 0;
+        batch = null;
+        closed = true;
+    }
+
+    // capacity: records that may wait for the sink before new ones are dropped
+    public EventJournal(int capacity, JournalLevel level, JournalSink sink) {
+        this(capacity, level, sink, new ExecutorScheduler("gossip-journal", true), true);
+    }
+
+    // drains on the given scheduler and takes the timestamps from it, e.g. a simulation's virtual time
+    public EventJournal(int capacity, JournalLevel level, JournalSink sink, Scheduler drainer) {
+        this(capacity, level, sink, drainer, false);
+    }
+
+    private EventJournal(int capacity, JournalLevel level, JournalSink sink, Scheduler drainer,
+                         boolean ownsDrainer) {
+        this.level = level.ordinal();
+        this.sink = sink;
+        this.drainer = drainer;
+        this.ownsDrainer = ownsDrainer;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        times = new long[size];
+        members = new long[size];
+        values = new long[size];
+        extras = new int[size];
+        events = new byte[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        batch = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_SIZE);
+        if (level != JournalLevel.OFF) {
+            drainer.scheduleAtFixedRate(this::drain, DRAIN_PERIOD_NANOS, DRAIN_PERIOD_NANOS);
+        }
+    }
+
+    public boolean isEnabled(JournalLevel level) {
+        return level.ordinal() <= this.level;
+    }
+
+    // never blocks, the record is dropped if the ring is full or the journal closed
+    public void record(JournalLevel level, byte event, long member, long value, int extra) {
+        if (level.ordinal() > this.level || closed) {
+            return;
+        }
+        long now = drainer.nanoTime();
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    times[index] = now;
+                    members[index] = member;
+                    values[index] = value;
+                    extras[index] = extra;
+                    events[index] = event;
+                    sequences.set(index, position + 1);
+                    recorded.increment();
+                    return;
+                }
+            } else if (difference < 0) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    // runs on the drainer, and once more from close()
+    private synchronized void drain() {
+        if (sinkClosed) {
+            return;
+        }
+        try {
+            long now = drainer.nanoTime();
+            if (!clockWritten || now - lastClockNanos >= CLOCK_PERIOD_NANOS) {
+                clockWritten = true;
+                lastClockNanos = now;
+                put(now, JournalEvent.CLOCK, 0, System.currentTimeMillis(), 0);
+            }
+            while (true) {
+                int index = (int) (head & mask);
+                if (sequences.get(index) != head + 1) {
+                    break;
+                }
+                put(times[index], events[index], members[index], values[index], extras[index]);
+                sequences.set(index, head + mask + 1);
+                head++;
+            }
+            writeBatch();
+            sink.flush();
+        } catch (IOException e) {
+            // keep draining, so the ring does not fill up, and try again with the next batch
+            batch.clear();
+            System.err.println("Could not write the event journal: " + e.getMessage());
+        }
+    }
+
+    private void put(long time, byte event, long member, long value, int extra) throws IOException {
+        if (batch.remaining() < RECORD_SIZE) {
+            writeBatch();
+        }
+        batch.putLong(time);
+        batch.putLong(member);
+        batch.putLong(value);
+        batch.putInt(extra);
+        batch.put(event);
+        batch.put((byte) 0);
+        batch.putShort((short) 0);
+    }
+
+    private void writeBatch() throws IOException {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        sink.write(batch);
+        batch.clear();
+    }
+
+    // writes out what is in the ring and closes the sink, later records are dropped
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (ownsDrainer) {
+            drainer.shutdown();
+        }
+        synchronized (this) {
+            drain();
+            sinkClosed = true;
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the event journal: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getRecordedEvents() {
+        return recorded.sum();
+    }
+
+    // records lost because the sink could not keep up
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,95 @@
+package journal;
+
+// the one byte event type of a journal record, and what its fields mean
+// values are part of the journal file format: never renumber, only append
+public final class JournalEvent {
+    // value: System.currentTimeMillis() at the record's timestamp, so a reader can turn the
+    // monotonic timestamps into wall clock time. Written by the journal itself about once a second
+    public static final byte CLOCK = 0;
+
+    // INFO, member: the member, value: its sequence number
+    public static final byte MEMBER_ADDED = 1;
+    public static final byte MEMBER_SUSPECTED = 2;
+    public static final byte SUSPICION_CLEARED = 3;
+    // extra: milliseconds since we last heard from it
+    public static final byte MEMBER_FAILED = 4;
+    public static final byte MEMBER_REVIVED = 5;
+    public static final byte MEMBER_REMOVED = 6;
+
+    // INFO, member: the peer, value: the size in bytes (entries for MESSAGE_OVERSIZED), extra: message type
+    public static final byte MESSAGE_OVERSIZED = 7;
+    public static final byte PACKET_TRUNCATED = 8;
+    public static final byte DECODE_FAILED = 9;
+
+    // DEBUG, member: the member (ourselves for our own heartbeat), value: the new sequence number,
+    // extra: how far it moved
+    public static final byte SEQUENCE_ADVANCED = 10;
+
+    // TRACE, member: the peer, value: the size in bytes, extra: message type
+    public static final byte PACKET_SENT = 11;
+    public static final byte PACKET_RECEIVED = 12;
+
+    // INFO, member: ourselves, value: our new incarnation, extra: the MemberUpdate type we refuted
+    public static final byte SUSPICION_REFUTED = 13;
+
+    // INFO, member: ourselves, value: our new local health score (0 is healthy), extra: how far it moved
+    public static final byte LOCAL_HEALTH_CHANGED = 14;
+
+    // INFO, member: the member that signed off, value: its sequence number
+    public static final byte MEMBER_LEFT = 15;
+
+    // INFO, member: ourselves, value: the size in bytes of the file we did not read because it is
+    // not a membership snapshot of this version
+    public static final byte SNAPSHOT_IGNORED = 16;
+    // INFO, member: ourselves, value: the records in the log, extra: SNAPSHOT_COMPACTION or SNAPSHOT_SYNC
+    public static final byte SNAPSHOT_FAILED = 17;
+
+    public static final int SNAPSHOT_COMPACTION = 0;
+    public static final int SNAPSHOT_SYNC = 1;
+
+    private JournalEvent() {
+    }
+
+    public static String name(byte event) {
+        switch (event) {
+            case CLOCK:
+                return "CLOCK";
+            case MEMBER_ADDED:
+                return "MEMBER_ADDED";
+            case MEMBER_SUSPECTED:
+                return "MEMBER_SUSPECTED";
+            case SUSPICION_CLEARED:
+                return "SUSPICION_CLEARED";
+            case MEMBER_FAILED:
+                return "MEMBER_FAILED";
+            case MEMBER_REVIVED:
+                return "MEMBER_REVIVED";
+            case MEMBER_REMOVED:
+                return "MEMBER_REMOVED";
+            case MESSAGE_OVERSIZED:
+                return "MESSAGE_OVERSIZED";
+            case PACKET_TRUNCATED:
+                return "PACKET_TRUNCATED";
+            case DECODE_FAILED:
+                return "DECODE_FAILED";
+            case SEQUENCE_ADVANCED:
+                return "SEQUENCE_ADVANCED";
+            case PACKET_SENT:
+                return "PACKET_SENT";
+            case PACKET_RECEIVED:
+                return "PACKET_RECEIVED";
+            case SUSPICION_REFUTED:
+                return "SUSPICION_REFUTED";
+            case LOCAL_HEALTH_CHANGED:
+                return "LOCAL_HEALTH_CHANGED";
+            case MEMBER_LEFT:
+                return "MEMBER_LEFT";
+            case SNAPSHOT_IGNORED:
+                return "SNAPSHOT_IGNORED";
+            case SNAPSHOT_FAILED:
+                return "SNAPSHOT_FAILED";
+            default:
+                return "UNKNOWN(" + event + ")";
+        }
+    }
+}
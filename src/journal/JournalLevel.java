@@ -0,0 +1,13 @@
+package journal;
+
+// how much an EventJournal records, every level includes the ones above it
+public enum JournalLevel {
+    // nothing, recording costs one compare
+    OFF,
+    // membership changes: members added, suspected, failed, revived, removed, and packets we drop
+    INFO,
+    // plus every heartbeat sequence number that moves forward
+    DEBUG,
+    // plus every packet sent and received
+    TRACE
+}
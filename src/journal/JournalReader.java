@@ -0,0 +1,172 @@
+package journal;
+
+import message.MemberUpdate;
+import message.MessageType;
+import node.NodeId;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+// turns journal files back into text, one line per record, for reading after an incident:
+//
+// java journal.JournalReader <directory> <name>   every file of a RollingFileSink, oldest first
+// java journal.JournalReader <file>...            the given files in the given order
+//
+// times are wall clock times once a CLOCK record has been seen, and offsets from the first
+// record before that
+public class JournalReader {
+    public interface Visitor {
+        void onRecord(long timeNanos, byte event, long member, long value, int extra);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java journal.JournalReader <directory> <name> | <file>...");
+            System.exit(1);
+        }
+        Printer printer = new Printer(System.out);
+        Path first = Paths.get(args[0]);
+        if (args.length == 2 && Files.isDirectory(first)) {
+            int count = 0;
+            while (Files.exists(first.resolve(args[1] + "." + count + ".journal"))) {
+                count++;
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                read(first.resolve(args[1] + "." + i + ".journal"), printer);
+            }
+        } else {
+            for (String file : args) {
+                read(Paths.get(file), printer);
+            }
+        }
+    }
+
+    // calls the visitor for every record in the file, in order
+    public static void read(Path file, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RollingFileSink.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < RollingFileSink.HEADER_SIZE || header.getInt() != RollingFileSink.MAGIC) {
+                throw new IOException(file + " is not an event journal");
+            }
+            int version = header.get() & 0xFF;
+            int recordSize = header.get() & 0xFF;
+            if (version != RollingFileSink.VERSION || recordSize < EventJournal.RECORD_SIZE) {
+                throw new IOException(file + " has journal version " + version + ", record size " + recordSize);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(recordSize * 1024);
+            while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < recordSize) {
+                    // a record cut short by a crash, nothing more to read
+                    break;
+                }
+                while (buffer.remaining() >= recordSize) {
+                    int start = buffer.position();
+                    long time = buffer.getLong();
+                    long member = buffer.getLong();
+                    long value = buffer.getLong();
+                    int extra = buffer.getInt();
+                    byte event = buffer.get();
+                    // newer versions may append fields to a record
+                    buffer.position(start + recordSize);
+                    visitor.onRecord(time, event, member, value, extra);
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    // formats records, keeping track of the wall clock through CLOCK records
+    static class Printer implements Visitor {
+        private final PrintStream out;
+        private long firstNanos = Long.MIN_VALUE;
+        private long clockNanos = Long.MIN_VALUE;
+        private long clockMillis = 0;
+
+        Printer(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onRecord(long timeNanos, byte event, long member, long value, int extra) {
+            if (firstNanos == Long.MIN_VALUE) {
+                firstNanos = timeNanos;
+            }
+            if (event == JournalEvent.CLOCK) {
+                clockNanos = timeNanos;
+                clockMillis = value;
+                return;
+            }
+            StringBuilder line = new StringBuilder(96);
+            if (clockNanos != Long.MIN_VALUE) {
+                long nanos = timeNanos - clockNanos;
+                line.append(Instant.ofEpochMilli(clockMillis).plusNanos(nanos));
+            } else {
+                line.append('+').append((timeNanos - firstNanos) / 1_000).append("us");
+            }
+            line.append(' ').append(JournalEvent.name(event)).append(' ').append(member(member));
+            switch (event) {
+                case JournalEvent.PACKET_SENT:
+                case JournalEvent.PACKET_RECEIVED:
+                case JournalEvent.PACKET_TRUNCATED:
+                case JournalEvent.DECODE_FAILED:
+                    line.append(' ').append(MessageType.name((byte) extra)).append(' ').append(value).append(" bytes");
+                    break;
+                case JournalEvent.MESSAGE_OVERSIZED:
+                    line.append(' ').append(MessageType.name((byte) extra)).append(' ').append(value).append(" entries");
+                    break;
+                case JournalEvent.SEQUENCE_ADVANCED:
+                    line.append(" sequence ").append(value).append(" (+").append(extra).append(')');
+                    break;
+                case JournalEvent.MEMBER_FAILED:
+                    line.append(" sequence ").append(value).append(", silent for ").append(extra).append(" ms");
+                    break;
+                case JournalEvent.SUSPICION_REFUTED:
+                    line.append(" incarnation ").append(value).append(", refuted ")
+                            .append(MemberUpdate.name((byte) extra));
+                    break;
+                case JournalEvent.SNAPSHOT_IGNORED:
+                    line.append(' ').append(value).append(" bytes");
+                    break;
+                case JournalEvent.SNAPSHOT_FAILED:
+                    line.append(extra == JournalEvent.SNAPSHOT_SYNC ? " sync" : " compaction").append(" of ")
+                            .append(value).append(" records");
+                    break;
+                case JournalEvent.LOCAL_HEALTH_CHANGED:
+                    line.append(" health ").append(value).append(" (").append(extra > 0 ? "+" : "")
+                            .append(extra).append(')');
+                    break;
+                default:
+                    line.append(" sequence ").append(value);
+                    break;
+            }
+            out.println(line);
+        }
+
+        // host:port for IPv4 members, the hashed id for IPv6 ones
+        private static String member(long id) {
+            if (!NodeId.isIpv4(id)) {
+                return "ipv6#" + Long.toHexString(id);
+            }
+            byte[] ip = new byte[4];
+            NodeId.ipv4(id, ip);
+            try {
+                return InetAddress.getByAddress(ip).getHostAddress() + ":" + NodeId.port(id);
+            } catch (IOException e) {
+                return Long.toHexString(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// where an EventJournal's drain thread puts the records
+// write gets whole records between the buffer's position and limit and may only read them
+// during the call. All calls come from the drain thread
+public interface JournalSink {
+    void write(ByteBuffer records) throws IOException;
+
+    default void flush() throws IOException {
+    }
+
+    void close() throws IOException;
+}
@@ -0,0 +1,85 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// writes the journal to <name>.0.journal in the directory, and once that grows past maxFileBytes
+// shifts it to <name>.1.journal (and .1 to .2, ...), keeping at most maxFiles files
+// every file starts with an 8 byte header: "GJNL", format version, record size, 2 reserved bytes
+public class RollingFileSink implements JournalSink {
+    public static final int MAGIC = 0x474A4E4C;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final String name;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private FileChannel channel;
+    private long written;
+
+    public RollingFileSink(Path directory, String name, long maxFileBytes, int maxFiles) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        Files.createDirectories(directory);
+        open();
+    }
+
+    // the n-th newest file, 0 is the one being written
+    public Path file(int index) {
+        return directory.resolve(name + "." + index + ".journal");
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file(0), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put((byte) VERSION);
+        header.put((byte) EventJournal.RECORD_SIZE);
+        header.putShort((short) 0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        written = HEADER_SIZE;
+    }
+
+    @Override
+    public void write(ByteBuffer records) throws IOException {
+        if (written >= maxFileBytes) {
+            roll();
+        }
+        while (records.hasRemaining()) {
+            written += channel.write(records);
+        }
+    }
+
+    private void roll() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            if (Files.exists(file(i))) {
+                Files.move(file(i), file(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        open();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // hands the data to the OS, which is enough to survive the process; no fsync per batch
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,24 +1,201 @@
 package message;
 
-import java.io.Serializable;
+import node.NodeId;
 
-public class HeartbeatMessage implements Serializable {
-    private static final long serialVersionUID = 6529685098267757690L;
-    //private ConcurrentHashMap<String, Node> membershipList = new ConcurrentHashMap<>();
-    private String[] membershipList;
-    private long sequenceNumber;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 
-    public HeartbeatMessage(String[] membershipList, long sequenceNumber) {
-        // Initialize with an empty ConcurrentHashMap if membershipList is null
-        this.membershipList = membershipList;
-        this.sequenceNumber = sequenceNumber;
+// a decoded (or to-be-encoded) gossip message
+// instances are meant to be reused: clear() keeps the entry objects around so that steady state
+// encoding and decoding does not allocate
+public class HeartbeatMessage {
+    private byte type = MessageType.HEARTBEAT;
+
+    // version the message was encoded with, and the highest version its sender understands
+    private int version = MessageCodec.CURRENT_VERSION;
+    private int senderMaxVersion = MessageCodec.CURRENT_VERSION;
+
+    // set on receive, the address the packet came from
+    private InetSocketAddress sender;
+
+    private MemberEntry[] entries = new MemberEntry[16];
+    private int entryCount = 0;
+
+    // id range covered by a DIGEST, inclusive on both ends
+    private long rangeStart = NodeId.MIN;
+    private long rangeEnd = NodeId.MAX;
+
+    // (id, sequence number) pairs, sorted by id when they describe a range
+    private long[] digestIds = new long[16];
+    private long[] digestSequences = new long[16];
+    private int digestCount = 0;
+
+    // PING, PING_REQ and ACK: matches an ack to the probe it answers
+    private long probeId = 0;
+
+    // membership updates riding along, any type (version 4+)
+    private MemberUpdate[] updates = new MemberUpdate[8];
+    private int updateCount = 0;
+
+    public void clear() {
+        type = MessageType.HEARTBEAT;
+        sender = null;
+        entryCount = 0;
+        rangeStart = NodeId.MIN;
+        rangeEnd = NodeId.MAX;
+        digestCount = 0;
+        probeId = 0;
+        updateCount = 0;
+    }
+
+    // drops the piggybacked updates only, the rest of the message stays as it is
+    public void clearUpdates() {
+        updateCount = 0;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public void setType(byte type) {
+        this.type = type;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getSenderMaxVersion() {
+        return senderMaxVersion;
+    }
+
+    void setSenderMaxVersion(int senderMaxVersion) {
+        this.senderMaxVersion = senderMaxVersion;
+    }
+
+    public InetSocketAddress getSender() {
+        return sender;
+    }
+
+    public void setSender(InetSocketAddress sender) {
+        this.sender = sender;
+    }
+
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    public long getRangeEnd() {
+        return rangeEnd;
+    }
+
+    public void setRange(long rangeStart, long rangeEnd) {
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+    }
+
+    public long getProbeId() {
+        return probeId;
+    }
+
+    public void setProbeId(long probeId) {
+        this.probeId = probeId;
+    }
+
+    public int getDigestCount() {
+        return digestCount;
+    }
+
+    public long getDigestId(int index) {
+        return digestIds[index];
+    }
+
+    public long getDigestSequence(int index) {
+        return digestSequences[index];
+    }
+
+    public void addDigest(long id, long sequenceNumber) {
+        if (digestCount == digestIds.length) {
+            digestIds = Arrays.copyOf(digestIds, digestCount * 2);
+            digestSequences = Arrays.copyOf(digestSequences, digestCount * 2);
+        }
+        digestIds[digestCount] = id;
+        digestSequences[digestCount] = sequenceNumber;
+        digestCount++;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public MemberEntry getEntry(int index) {
+        if (index >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + entryCount);
+        }
+        return entries[index];
+    }
+
+    // hands out the next reusable entry, growing the backing array if needed
+    public MemberEntry addEntry() {
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        MemberEntry entry = entries[entryCount];
+        if (entry == null) {
+            entry = new MemberEntry();
+            entries[entryCount] = entry;
+        }
+        entryCount++;
+        return entry;
+    }
+
+    public void addEntry(InetSocketAddress address, long sequenceNumber) {
+        addEntry().set(address, sequenceNumber);
+    }
+
+    // for members we know by NodeId, see MemberEntry.set(long, InetSocketAddress, long)
+    public void addEntry(long id, InetSocketAddress address, long sequenceNumber) {
+        addEntry().set(id, address, sequenceNumber);
+    }
+
+    // same, with the member's zone as UTF-8, null if it has none or the receiver knows it already
+    public void addEntry(long id, InetSocketAddress address, long sequenceNumber, byte[] zone) {
+        MemberEntry entry = addEntry();
+        entry.set(id, address, sequenceNumber);
+        entry.setZone(zone);
+    }
+
+    // the decoder could not make sense of the last update after all
+    void dropLastUpdate() {
+        updateCount--;
+    }
+
+    public int getUpdateCount() {
+        return updateCount;
     }
 
-    public String[] getMembershipList() {
-        return membershipList;
+    public MemberUpdate getUpdate(int index) {
+        if (index >= updateCount) {
+            throw new IndexOutOfBoundsException("Update " + index + " of " + updateCount);
+        }
+        return updates[index];
     }
 
-    public long getSequenceNumber() {
-        return sequenceNumber;
+    // hands out the next reusable update, like addEntry()
+    public MemberUpdate addUpdate() {
+        if (updateCount == updates.length) {
+            updates = Arrays.copyOf(updates, updates.length * 2);
+        }
+        MemberUpdate update = updates[updateCount];
+        if (update == null) {
+            update = new MemberUpdate();
+            updates[updateCount] = update;
+        }
+        updateCount++;
+        return update;
     }
 }
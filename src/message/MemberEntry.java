@@ -0,0 +1,126 @@
+package message;
+
+import node.NodeId;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// one member inside a gossip message
+// entries are owned by a HeartbeatMessage and reused between packets, so callers
+// must copy anything they want to keep after the next decode
+public class MemberEntry {
+    // raw IPv4 (4 bytes) or IPv6 (16 bytes) address, only the first addressLength bytes are valid
+    final byte[] address = new byte[16];
+    int addressLength;
+    int port;
+    long sequenceNumber;
+    // the member's zone as UTF-8, only the first zoneLength bytes are valid, 0 if not sent along
+    final byte[] zone = new byte[MessageCodec.MAX_ZONE_LENGTH];
+    int zoneLength;
+
+    public void set(InetSocketAddress socketAddress, long sequenceNumber) {
+        set(socketAddress.getAddress().getAddress(), socketAddress.getPort(), sequenceNumber);
+    }
+
+    // same, but a packed IPv4 id already holds the address bytes, so they are taken from there
+    // instead of InetAddress.getAddress(), which copies them every time
+    public void set(long id, InetSocketAddress socketAddress, long sequenceNumber) {
+        if (!NodeId.isIpv4(id)) {
+            set(socketAddress, sequenceNumber);
+            return;
+        }
+        NodeId.ipv4(id, address);
+        addressLength = 4;
+        port = NodeId.port(id);
+        this.sequenceNumber = sequenceNumber;
+        zoneLength = 0;
+    }
+
+    public void set(byte[] address, int port, long sequenceNumber) {
+        if (address.length != 4 && address.length != 16) {
+            throw new IllegalArgumentException("Unsupported address length " + address.length);
+        }
+        System.arraycopy(address, 0, this.address, 0, address.length);
+        this.addressLength = address.length;
+        this.port = port;
+        this.sequenceNumber = sequenceNumber;
+        zoneLength = 0;
+    }
+
+    public void set(MemberEntry other) {
+        System.arraycopy(other.address, 0, address, 0, other.addressLength);
+        addressLength = other.addressLength;
+        port = other.port;
+        sequenceNumber = other.sequenceNumber;
+        System.arraycopy(other.zone, 0, zone, 0, other.zoneLength);
+        zoneLength = other.zoneLength;
+    }
+
+    // sends the zone along with the entry, null for none. Call after set()
+    public void setZone(byte[] zone) {
+        if (zone == null) {
+            zoneLength = 0;
+            return;
+        }
+        if (zone.length > MessageCodec.MAX_ZONE_LENGTH) {
+            throw new IllegalArgumentException("Zone of " + zone.length + " bytes, at most "
+                    + MessageCodec.MAX_ZONE_LENGTH + " fit in an entry");
+        }
+        System.arraycopy(zone, 0, this.zone, 0, zone.length);
+        zoneLength = zone.length;
+    }
+
+    public boolean hasZone() {
+        return zoneLength > 0;
+    }
+
+    // whether the entry carries exactly these zone bytes, without decoding them
+    public boolean isInZone(byte[] zone) {
+        return zone != null && Arrays.equals(this.zone, 0, zoneLength, zone, 0, zone.length);
+    }
+
+    // allocates, only meant for the slow path (new zones, logging). Null if the entry has none
+    public String getZone() {
+        return zoneLength == 0 ? null : new String(zone, 0, zoneLength, StandardCharsets.UTF_8);
+    }
+
+    public int getAddressLength() {
+        return addressLength;
+    }
+
+    public byte getAddressByte(int index) {
+        return address[index];
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getId() {
+        return NodeId.of(address, addressLength, port);
+    }
+
+    // allocates, only meant for the slow path (new members, logging)
+    public InetSocketAddress toSocketAddress() {
+        byte[] copy = new byte[addressLength];
+        System.arraycopy(address, 0, copy, 0, addressLength);
+        try {
+            // getByAddress never does a name lookup
+            return new InetSocketAddress(InetAddress.getByAddress(copy), port);
+        } catch (java.net.UnknownHostException e) {
+            // only thrown for illegal lengths, which set() and the codec already reject
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toSocketAddress() + " - " + sequenceNumber + (zoneLength == 0 ? "" : " @" + getZone());
+    }
+}
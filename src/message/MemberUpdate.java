@@ -0,0 +1,72 @@
+package message;
+
+import java.net.InetSocketAddress;
+
+// a change in a member's state, piggybacked on whatever packet goes out next (version 4+)
+// ALIVE announces a member (or its refutation of a suspicion), SUSPECT and FAILED pass on what
+// a detector concluded, LEFT is a member signing off for good (see NodeManager.leave). The
+// incarnation orders them: only the member itself ever raises its incarnation, so a newer ALIVE
+// overrides any suspicion of an older incarnation. Carries the member's address and heartbeat
+// sequence like an entry, so an ALIVE can introduce a new member, and then also its zone
+public class MemberUpdate extends MemberEntry {
+    // values are part of the wire format: never renumber, only append
+    public static final byte ALIVE = 0;
+    public static final byte SUSPECT = 1;
+    public static final byte FAILED = 2;
+    public static final byte LEFT = 3;
+
+    byte type;
+    long incarnation;
+
+    public void set(byte type, long id, InetSocketAddress address, long sequenceNumber,
+                    long incarnation) {
+        set(id, address, sequenceNumber);
+        this.type = type;
+        this.incarnation = incarnation;
+    }
+
+    // same, with the member's zone as UTF-8, null for none
+    public void set(byte type, long id, InetSocketAddress address, long sequenceNumber,
+                    long incarnation, byte[] zone) {
+        set(type, id, address, sequenceNumber, incarnation);
+        setZone(zone);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    public static boolean isKnown(byte type) {
+        return type >= ALIVE && type <= LEFT;
+    }
+
+    // lowest wire version that can carry the type, older readers drop the whole packet
+    public static int minVersion(byte type) {
+        return type == LEFT ? 5 : MessageCodec.UPDATES_VERSION;
+    }
+
+    // for logs
+    public static String name(byte type) {
+        switch (type) {
+            case ALIVE:
+                return "ALIVE";
+            case SUSPECT:
+                return "SUSPECT";
+            case FAILED:
+                return "FAILED";
+            case LEFT:
+                return "LEFT";
+            default:
+                return "UNKNOWN(" + type + ")";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name(type) + " " + super.toString() + " incarnation " + incarnation;
+    }
+}
@@ -0,0 +1,335 @@
+package message;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// hand written wire format, replaces java serialization of String[] / Node
+//
+// header (5 bytes):
+//   magic       2 bytes  0x47 0x50 ("GP")
+//   version     1 byte   version this packet is encoded with
+//   maxVersion  1 byte   highest version the sender can decode, used for negotiation
+//   type        1 byte   see MessageType
+//
+// HEARTBEAT payload:
+//   count       varint
+//   entries     count times: length varint, then
+//                 addressLength 1 byte (4 or 16), address bytes, port varint, sequence varint,
+//                 then optionally the member's zone: length varint, UTF-8 bytes (any version,
+//                 older readers skip it like any appended field)
+//
+// DIGEST, DIGEST_ACK and DELTA payload (version 2+):
+//   rangeStart  varint   first id covered by the digest
+//   rangeEnd    varint   last id covered by the digest
+//   entries     same as HEARTBEAT
+//   digest      count varint, then count times: id varint, sequence varint
+//
+// PING, PING_REQ and ACK payload (version 3+):
+//   probeId     varint
+//   entries     same as HEARTBEAT, exactly one: the sender, the member to probe or the member that answered
+//
+// updates (version 4+), after the payload of any type, only if there are any:
+//   count       varint
+//   updates     count times: length varint, then
+//                 type 1 byte (see MemberUpdate), then an entry's fields up to the sequence,
+//                 then incarnation varint, then optionally the zone like in an entry
+//               LEFT needs version 5+. Readers skip the updates of types they do not know
+//
+// every entry is length prefixed so newer versions can append fields and older readers
+// simply skip what they do not understand
+public final class MessageCodec {
+    public static final short MAGIC = 0x4750;
+    public static final int HEADER_SIZE = 5;
+
+    // range of versions this build can decode, and the one it prefers to send
+    public static final int MIN_VERSION = 1;
+    public static final int CURRENT_VERSION = 5;
+    // first version that can carry piggybacked membership updates
+    public static final int UPDATES_VERSION = 4;
+
+    // largest datagram we build or accept
+    public static final int MAX_PACKET_SIZE = 1024;
+
+    // longest zone label an entry carries, in UTF-8 bytes
+    public static final int MAX_ZONE_LENGTH = 64;
+
+    private MessageCodec() {
+    }
+
+    // writes the message at the buffer's position, in the given wire version
+    // throws BufferOverflowException if it does not fit, leaving the buffer position undefined
+    public static void encode(HeartbeatMessage message, int version, ByteBuffer out) {
+        if (version < MIN_VERSION || version > CURRENT_VERSION) {
+            throw new IllegalArgumentException("Cannot encode wire version " + version);
+        }
+        if (version < MessageType.minVersion(message.getType())) {
+            throw new IllegalArgumentException("Message type " + message.getType()
+                    + " needs wire version " + MessageType.minVersion(message.getType()));
+        }
+        out.putShort(MAGIC);
+        out.put((byte) version);
+        out.put((byte) CURRENT_VERSION);
+        out.put(message.getType());
+
+        boolean probe = MessageType.isProbe(message.getType());
+        boolean exchange = !probe && message.getType() != MessageType.HEARTBEAT;
+        if (probe) {
+            Varint.writeLong(out, message.getProbeId());
+        }
+        if (exchange) {
+            Varint.writeLong(out, message.getRangeStart());
+            Varint.writeLong(out, message.getRangeEnd());
+        }
+        int count = message.getEntryCount();
+        Varint.writeLong(out, count);
+        for (int i = 0; i < count; i++) {
+            encodeEntry(message.getEntry(i), out);
+        }
+        if (exchange) {
+            int digestCount = message.getDigestCount();
+            Varint.writeLong(out, digestCount);
+            for (int i = 0; i < digestCount; i++) {
+                Varint.writeLong(out, message.getDigestId(i));
+                Varint.writeLong(out, message.getDigestSequence(i));
+            }
+        }
+        if (version >= UPDATES_VERSION && message.getUpdateCount() > 0) {
+            encodeUpdates(message, out);
+        }
+    }
+
+    // appends the message's updates to a packet encode() wrote without them (version 4+ only),
+    // so a sender can fill what room the packet has left
+    public static void encodeUpdates(HeartbeatMessage message, ByteBuffer out) {
+        int count = message.getUpdateCount();
+        Varint.writeLong(out, count);
+        for (int i = 0; i < count; i++) {
+            MemberUpdate update = message.getUpdate(i);
+            int length = 1 + fieldsLength(update) + Varint.sizeOf(update.incarnation)
+                    + zoneSize(update.zoneLength);
+            Varint.writeLong(out, length);
+            if (out.remaining() < length) {
+                throw new BufferOverflowException();
+            }
+            out.put(update.type);
+            out.put((byte) update.addressLength);
+            out.put(update.address, 0, update.addressLength);
+            Varint.writeLong(out, update.port);
+            Varint.writeLong(out, update.sequenceNumber);
+            Varint.writeLong(out, update.incarnation);
+            encodeZone(update, out);
+        }
+    }
+
+    // bytes an entry takes on the wire, for callers that fill a packet up to a budget
+    public static int sizeOf(MemberEntry entry) {
+        return entrySize(entry.addressLength, entry.port, entry.sequenceNumber, entry.zoneLength);
+    }
+
+    public static int entrySize(int addressLength, int port, long sequenceNumber) {
+        return entrySize(addressLength, port, sequenceNumber, 0);
+    }
+
+    // same, for an entry that carries a zone of zoneLength bytes (0 for none)
+    public static int entrySize(int addressLength, int port, long sequenceNumber, int zoneLength) {
+        int length = 1 + addressLength + Varint.sizeOf(port) + Varint.sizeOf(sequenceNumber)
+                + zoneSize(zoneLength);
+        return Varint.sizeOf(length) + length;
+    }
+
+    private static int zoneSize(int zoneLength) {
+        return zoneLength == 0 ? 0 : Varint.sizeOf(zoneLength) + zoneLength;
+    }
+
+    // bytes an update takes on the wire, with a zone of zoneLength bytes (0 for none)
+    public static int updateSize(int addressLength, int port, long sequenceNumber, long incarnation,
+                                 int zoneLength) {
+        int length = 1 + 1 + addressLength + Varint.sizeOf(port) + Varint.sizeOf(sequenceNumber)
+                + Varint.sizeOf(incarnation) + zoneSize(zoneLength);
+        return Varint.sizeOf(length) + length;
+    }
+
+    // bytes a digest pair takes on the wire
+    public static int digestSize(long id, long sequenceNumber) {
+        return Varint.sizeOf(id) + Varint.sizeOf(sequenceNumber);
+    }
+
+    // fixed overhead of a message around its entries and digest pairs, assuming counts below 16384
+    public static int overhead(byte type) {
+        if (type == MessageType.HEARTBEAT) {
+            return HEADER_SIZE + 2;
+        }
+        return HEADER_SIZE + 2 * Varint.MAX_LONG_BYTES + 2 + 2;
+    }
+
+    // address, port and sequence, what entries and updates have in common
+    private static int fieldsLength(MemberEntry entry) {
+        return 1 + entry.addressLength
+                + Varint.sizeOf(entry.port)
+                + Varint.sizeOf(entry.sequenceNumber);
+    }
+
+    private static void encodeEntry(MemberEntry entry, ByteBuffer out) {
+        int length = fieldsLength(entry) + zoneSize(entry.zoneLength);
+        Varint.writeLong(out, length);
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        out.put((byte) entry.addressLength);
+        out.put(entry.address, 0, entry.addressLength);
+        Varint.writeLong(out, entry.port);
+        Varint.writeLong(out, entry.sequenceNumber);
+        encodeZone(entry, out);
+    }
+
+    private static void encodeZone(MemberEntry entry, ByteBuffer out) {
+        if (entry.zoneLength > 0) {
+            Varint.writeLong(out, entry.zoneLength);
+            out.put(entry.zone, 0, entry.zoneLength);
+        }
+    }
+
+    // reads the header only, returns false if the bytes are not one of our packets
+    // leaves the sender's max version in the message even if the packet version is unsupported,
+    // so that the caller can still record it for negotiation
+    public static boolean decodeHeader(ByteBuffer in, HeartbeatMessage into) {
+        if (in.remaining() < HEADER_SIZE || in.getShort() != MAGIC) {
+            return false;
+        }
+        int version = in.get() & 0xFF;
+        into.setSenderMaxVersion(in.get() & 0xFF);
+        into.setVersion(version);
+        into.setType(in.get());
+        return version >= MIN_VERSION && version <= CURRENT_VERSION;
+    }
+
+    // decodes a whole packet into the reusable message
+    // returns false for anything malformed: wrong magic, unsupported version or type,
+    // truncated entries. Never throws on bad input
+    public static boolean decode(ByteBuffer in, HeartbeatMessage into) {
+        into.clear();
+        into.setSenderMaxVersion(0);
+        try {
+            if (!decodeHeader(in, into) || !MessageType.isKnown(into.getType())
+                    || into.getVersion() < MessageType.minVersion(into.getType())) {
+                return false;
+            }
+            boolean probe = MessageType.isProbe(into.getType());
+            boolean exchange = !probe && into.getType() != MessageType.HEARTBEAT;
+            if (probe) {
+                into.setProbeId(Varint.readLong(in));
+            }
+            if (exchange) {
+                into.setRange(Varint.readLong(in), Varint.readLong(in));
+            }
+            int count = Varint.readInt(in);
+            // every entry takes at least 1 byte, so a bigger count is a lie
+            if (count > in.remaining()) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (!decodeEntry(in, into.addEntry())) {
+                    return false;
+                }
+            }
+            if (exchange) {
+                int digestCount = Varint.readInt(in);
+                // every pair takes at least 2 bytes
+                if (digestCount > in.remaining() / 2) {
+                    return false;
+                }
+                for (int i = 0; i < digestCount; i++) {
+                    long id = Varint.readLong(in);
+                    into.addDigest(id, Varint.readLong(in));
+                }
+            }
+            if (into.getVersion() >= UPDATES_VERSION && in.hasRemaining()) {
+                int updateCount = Varint.readInt(in);
+                if (updateCount > in.remaining()) {
+                    return false;
+                }
+                for (int i = 0; i < updateCount; i++) {
+                    MemberUpdate update = into.addUpdate();
+                    if (!decodeUpdate(in, update)) {
+                        return false;
+                    }
+                    if (!MemberUpdate.isKnown(update.type)) {
+                        into.dropLastUpdate();
+                    }
+                }
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    private static boolean decodeUpdate(ByteBuffer in, MemberUpdate update) {
+        int length = Varint.readInt(in);
+        if (length < 1 || length > in.remaining()) {
+            return false;
+        }
+        int end = in.position() + length;
+        update.type = in.get();
+        if (!MemberUpdate.isKnown(update.type)) {
+            // from a newer version, the length tells us where the next one starts
+            in.position(end);
+            return true;
+        }
+        if (!decodeEntryFields(in, update, end)) {
+            return false;
+        }
+        update.incarnation = Varint.readLong(in);
+        if (in.position() > end || !decodeZone(in, update, end)) {
+            return false;
+        }
+        in.position(end);
+        return true;
+    }
+
+    private static boolean decodeEntry(ByteBuffer in, MemberEntry entry) {
+        int length = Varint.readInt(in);
+        if (length > in.remaining()) {
+            return false;
+        }
+        int end = in.position() + length;
+        if (!decodeEntryFields(in, entry, end)) {
+            return false;
+        }
+        if (!decodeZone(in, entry, end)) {
+            return false;
+        }
+        // skip fields appended by newer versions
+        in.position(end);
+        return true;
+    }
+
+    // the optional zone, if the entry or update has bytes left before its end
+    private static boolean decodeZone(ByteBuffer in, MemberEntry entry, int end) {
+        if (in.position() == end) {
+            return true;
+        }
+        int zoneLength = Varint.readInt(in);
+        if (zoneLength < 0 || zoneLength > MAX_ZONE_LENGTH || zoneLength > end - in.position()) {
+            return false;
+        }
+        in.get(entry.zone, 0, zoneLength);
+        entry.zoneLength = zoneLength;
+        return true;
+    }
+
+    // address, port and sequence of an entry or update that ends at end
+    private static boolean decodeEntryFields(ByteBuffer in, MemberEntry entry, int end) {
+        int addressLength = in.get();
+        if (addressLength != 4 && addressLength != 16) {
+            return false;
+        }
+        in.get(entry.address, 0, addressLength);
+        entry.addressLength = addressLength;
+        entry.port = Varint.readInt(in);
+        entry.sequenceNumber = Varint.readLong(in);
+        entry.zoneLength = 0;
+        return entry.port <= 0xFFFF && in.position() <= end;
+    }
+}
@@ -0,0 +1,65 @@
+package message;
+
+// the one byte message type that follows the header
+// values are part of the wire format: never renumber, only append
+public final class MessageType {
+    // full membership list with heartbeat sequence numbers
+    public static final byte HEARTBEAT = 1;
+
+    // scuttlebutt exchange, all since version 2
+    // DIGEST: (id, sequence) pairs for one id range of the sender's members, plus the sender itself
+    public static final byte DIGEST = 2;
+    // DIGEST_ACK: entries the digest sender is missing, and digest pairs the receiver wants back
+    public static final byte DIGEST_ACK = 3;
+    // DELTA: entries only, the answer to the wanted pairs of a DIGEST_ACK
+    public static final byte DELTA = 4;
+
+    // SWIM probing, all since version 3, every one carries a probe id
+    // PING: "are you there", the only entry is the sender
+    public static final byte PING = 5;
+    // PING_REQ: "ping this member for me", the only entry is the member to probe
+    public static final byte PING_REQ = 6;
+    // ACK: answer to a PING (or relayed answer to a PING_REQ), the only entry is the member that answered
+    public static final byte ACK = 7;
+
+    private MessageType() {
+    }
+
+    public static boolean isKnown(byte type) {
+        return type >= HEARTBEAT && type <= ACK;
+    }
+
+    public static boolean isProbe(byte type) {
+        return type >= PING && type <= ACK;
+    }
+
+    // for logs and metrics
+    public static String name(byte type) {
+        switch (type) {
+            case HEARTBEAT:
+                return "HEARTBEAT";
+            case DIGEST:
+                return "DIGEST";
+            case DIGEST_ACK:
+                return "DIGEST_ACK";
+            case DELTA:
+                return "DELTA";
+            case PING:
+                return "PING";
+            case PING_REQ:
+                return "PING_REQ";
+            case ACK:
+                return "ACK";
+            default:
+                return "UNKNOWN(" + type + ")";
+        }
+    }
+
+    // oldest wire version that can carry the type
+    public static int minVersion(byte type) {
+        if (type == HEARTBEAT) {
+            return 1;
+        }
+        return isProbe(type) ? 3 : 2;
+    }
+}
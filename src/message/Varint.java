@@ -0,0 +1,54 @@
+package message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// unsigned LEB128 varints: 7 bits per byte, high bit set means "more bytes follow"
+// small numbers (ports, sequence numbers early in a node's life) take 1-3 bytes instead of 4-8
+public final class Varint {
+
+    // a 64 bit value never needs more than 10 bytes
+    public static final int MAX_LONG_BYTES = 10;
+
+    private Varint() {
+    }
+
+    public static void writeLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long readLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        // more than 10 bytes can only come from a corrupt or hostile packet
+        throw new BufferUnderflowException();
+    }
+
+    public static int readInt(ByteBuffer in) {
+        long value = readLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new BufferUnderflowException();
+        }
+        return (int) value;
+    }
+
+    // number of bytes writeLong() will use for the value, used to size length prefixes up front
+    public static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,39 @@
+package message;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// keeps track of the highest wire version each peer has told us it understands
+// every packet carries its sender's max version, so after one packet in each direction two nodes
+// talk the newest version they both know. Peers we have not heard from yet get MIN_VERSION,
+// which keeps old nodes decoding our packets during a rolling upgrade
+public class VersionNegotiator {
+    private final ConcurrentHashMap<InetSocketAddress, Integer> peerVersions = new ConcurrentHashMap<>();
+
+    public void observe(InetSocketAddress peer, int peerMaxVersion) {
+        int usable = Math.min(peerMaxVersion, MessageCodec.CURRENT_VERSION);
+        if (usable < MessageCodec.MIN_VERSION) {
+            // peer is too old for us, nothing we send will be understood
+            return;
+        }
+        Integer known = peerVersions.get(peer);
+        if (known == null || known != usable) {
+            peerVersions.put(peer, usable);
+        }
+    }
+
+    public int versionFor(InetSocketAddress peer) {
+        Integer version = peerVersions.get(peer);
+        return version == null ? MessageCodec.MIN_VERSION : version;
+    }
+
+    public void forget(InetSocketAddress peer) {
+        peerVersions.remove(peer);
+    }
+
+    // forgets every peer the predicate does not keep
+    public void retainOnly(Predicate<InetSocketAddress> keep) {
+        peerVersions.keySet().removeIf(keep.negate());
+    }
+}
@@ -0,0 +1,276 @@
+package metrics;
+
+import message.MessageType;
+import node.MemberState;
+import node.MemberTable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// the counters and histograms of one NodeManager
+// everything on the send, receive and detection paths is a striped LongAdder (or a Histogram
+// of them), so recording never locks, never allocates and does not make the receive loops
+// fight over one cache line. Members per state are not counted along the way but read from the
+// member table when a snapshot is taken
+public class GossipMetrics implements GossipMetricsMXBean {
+    // one slot per message type, slot 0 for types we do not know
+    private static final int TYPES = MessageType.ACK + 1;
+    // where traffic with members of a zone we have not learned yet is counted
+    public static final String UNKNOWN_ZONE = "(unknown)";
+
+    private final MemberTable members;
+
+    private final LongAdder[] packetsSent = adders(TYPES);
+    private final LongAdder[] bytesSent = adders(TYPES);
+    private final LongAdder[] packetsReceived = adders(TYPES);
+    private final LongAdder[] bytesReceived = adders(TYPES);
+    private final LongAdder decodeFailures = new LongAdder();
+    private final LongAdder truncatedPackets = new LongAdder();
+    private final LongAdder oversizedMessages = new LongAdder();
+    private final LongAdder stateTransfers = new LongAdder();
+    private final LongAdder stateTransferBytes = new LongAdder();
+    private final LongAdder stateTransferFailures = new LongAdder();
+    // by the zone of the member at the other end: {bytes sent, bytes received}. Only counted
+    // once we have a zone ourselves, a zone's adders are created the first time we see it
+    private final Map<String, LongAdder[]> zoneTraffic = new ConcurrentHashMap<>();
+    private final LongAdder crossZoneBytesSent = new LongAdder();
+    private final LongAdder crossZoneBytesReceived = new LongAdder();
+    private volatile String zone = null;
+    private volatile int localHealth = 0;
+
+    private final Histogram mergeNanos = new Histogram();
+    private final Histogram heartbeatIntervalNanos = new Histogram();
+    private final Histogram detectionLatencyNanos = new Histogram();
+
+    public GossipMetrics(MemberTable members) {
+        this.members = members;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static int slot(byte type) {
+        return MessageType.isKnown(type) ? type : 0;
+    }
+
+    public void packetSent(byte type, int bytes) {
+        packetsSent[slot(type)].increment();
+        bytesSent[slot(type)].add(bytes);
+    }
+
+    public void packetReceived(byte type, int bytes) {
+        packetsReceived[slot(type)].increment();
+        bytesReceived[slot(type)].add(bytes);
+    }
+
+    // our own zone, null stops counting traffic by zone
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
+    // whether packetSent and packetReceived should also be told the zone of the other end
+    public boolean countsZones() {
+        return zone != null;
+    }
+
+    // their zone is null if we do not know it yet
+    public void zoneSent(String theirZone, int bytes) {
+        zoneTraffic(theirZone)[0].add(bytes);
+        if (theirZone != null && !theirZone.equals(zone)) {
+            crossZoneBytesSent.add(bytes);
+        }
+    }
+
+    public void zoneReceived(String theirZone, int bytes) {
+        zoneTraffic(theirZone)[1].add(bytes);
+        if (theirZone != null && !theirZone.equals(zone)) {
+            crossZoneBytesReceived.add(bytes);
+        }
+    }
+
+    private LongAdder[] zoneTraffic(String theirZone) {
+        String key = theirZone == null ? UNKNOWN_ZONE : theirZone;
+        LongAdder[] adders = zoneTraffic.get(key);
+        return adders != null ? adders : zoneTraffic.computeIfAbsent(key, z -> adders(2));
+    }
+
+    public void decodeFailed() {
+        decodeFailures.increment();
+    }
+
+    public void packetTruncated() {
+        truncatedPackets.increment();
+    }
+
+    public void messageOversized() {
+        oversizedMessages.increment();
+    }
+
+    // one full state exchange over TCP, bytes in both directions
+    public void stateTransferred(long bytes) {
+        stateTransfers.increment();
+        stateTransferBytes.add(bytes);
+    }
+
+    public void stateTransferFailed() {
+        stateTransferFailures.increment();
+    }
+
+    public void merged(long nanos) {
+        mergeNanos.record(nanos);
+    }
+
+    public void heartbeatInterval(long nanos) {
+        heartbeatIntervalNanos.record(nanos);
+    }
+
+    public void detected(long nanos) {
+        detectionLatencyNanos.record(nanos);
+    }
+
+    // our own health score, 0 while we trust our timers
+    public void localHealth(int score) {
+        localHealth = score;
+    }
+
+    public MetricsSnapshot snapshot() {
+        int[] states = new int[MemberState.values().length];
+        members.countStates(states);
+        return new MetricsSnapshot(members.getClock().nanoTime(),
+                byType(packetsSent), byType(bytesSent), byType(packetsReceived), byType(bytesReceived),
+                decodeFailures.sum(), truncatedPackets.sum(), oversizedMessages.sum(),
+                stateTransfers.sum(), stateTransferBytes.sum(), stateTransferFailures.sum(),
+                byZone(0), byZone(1), crossZoneBytesSent.sum(), crossZoneBytesReceived.sum(),
+                states[MemberState.ALIVE.ordinal()], states[MemberState.SUSPECT.ordinal()],
+                states[MemberState.FAILED.ordinal()],
+                mergeNanos.snapshot(), heartbeatIntervalNanos.snapshot(), detectionLatencyNanos.snapshot());
+    }
+
+    // only the types that have been seen, unknown ones under UNKNOWN
+    private static Map<String, Long> byType(LongAdder[] adders) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < adders.length; i++) {
+            long count = adders[i].sum();
+            if (count > 0) {
+                counts.put(i == 0 ? "UNKNOWN" : MessageType.name((byte) i), count);
+            }
+        }
+        return counts;
+    }
+
+    // sorted by zone name
+    private Map<String, Long> byZone(int index) {
+        Map<String, Long> bytes = new TreeMap<>();
+        for (Map.Entry<String, LongAdder[]> traffic : zoneTraffic.entrySet()) {
+            bytes.put(traffic.getKey(), traffic.getValue()[index].sum());
+        }
+        return bytes;
+    }
+
+    private static long total(LongAdder[] adders) {
+        long sum = 0;
+        for (LongAdder adder : adders) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public MetricsSnapshot getSnapshot() {
+        return snapshot();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return total(packetsSent);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return total(bytesSent);
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return total(packetsReceived);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return total(bytesReceived);
+    }
+
+    @Override
+    public long getDecodeFailures() {
+        return decodeFailures.sum();
+    }
+
+    @Override
+    public long getTruncatedPackets() {
+        return truncatedPackets.sum();
+    }
+
+    @Override
+    public long getOversizedMessages() {
+        return oversizedMessages.sum();
+    }
+
+    @Override
+    public long getStateTransfers() {
+        return stateTransfers.sum();
+    }
+
+    @Override
+    public long getStateTransferBytes() {
+        return stateTransferBytes.sum();
+    }
+
+    @Override
+    public long getStateTransferFailures() {
+        return stateTransferFailures.sum();
+    }
+
+    @Override
+    public long getCrossZoneBytesSent() {
+        return crossZoneBytesSent.sum();
+    }
+
+    @Override
+    public long getCrossZoneBytesReceived() {
+        return crossZoneBytesReceived.sum();
+    }
+
+    @Override
+    public int getLocalHealth() {
+        return localHealth;
+    }
+
+    @Override
+    public int getAliveMembers() {
+        return countState(MemberState.ALIVE);
+    }
+
+    @Override
+    public int getSuspectMembers() {
+        return countState(MemberState.SUSPECT);
+    }
+
+    @Override
+    public int getFailedMembers() {
+        return countState(MemberState.FAILED);
+    }
+
+    private int countState(MemberState state) {
+        int[] states = new int[MemberState.values().length];
+        members.countStates(states);
+        return states[state.ordinal()];
+    }
+}
@@ -0,0 +1,41 @@
+package metrics;
+
+// what a NodeManager exposes over JMX, one bean per node under
+// gossip:type=NodeManager,address="host:port"
+public interface GossipMetricsMXBean {
+    // everything below at once, plus the per message type counts and the histograms
+    MetricsSnapshot getSnapshot();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getDecodeFailures();
+
+    long getTruncatedPackets();
+
+    long getOversizedMessages();
+
+    long getStateTransfers();
+
+    long getStateTransferBytes();
+
+    long getStateTransferFailures();
+
+    long getCrossZoneBytesSent();
+
+    long getCrossZoneBytesReceived();
+
+    // how degraded this node thinks it is itself, our timeouts are stretched by 1 + this
+    int getLocalHealth();
+
+    int getAliveMembers();
+
+    int getSuspectMembers();
+
+    int getFailedMembers();
+}
@@ -0,0 +1,43 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// distribution of a duration (or any non negative long) in fixed power of two buckets
+// bucket i counts values in [2^(i-1), 2^i), bucket 0 counts zero. Recording is two striped
+// adds and a max, no locks and no allocation, and the buckets never need resizing;
+// percentiles read from a snapshot are exact to within a factor of two
+public final class Histogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // negative values (a clock that went backwards) count as zero
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        buckets[bucketOf(clamped)].increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    static int bucketOf(long value) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+
+    // counts recorded while the snapshot is taken may be in some sums and not in others
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new HistogramSnapshot(counts, sum.sum(), max.get());
+    }
+}
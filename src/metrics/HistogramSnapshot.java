@@ -0,0 +1,73 @@
+package metrics;
+
+// a Histogram at one moment, values in the unit they were recorded in (nanoseconds in
+// GossipMetrics). The getters make it readable as composite data over JMX
+public final class HistogramSnapshot {
+    private final long[] bucketCounts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] bucketCounts, long sum, long max) {
+        this.bucketCounts = bucketCounts;
+        long total = 0;
+        for (long bucketCount : bucketCounts) {
+            total += bucketCount;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return percentile(0.50);
+    }
+
+    public long getP90() {
+        return percentile(0.90);
+    }
+
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    // the upper bound of the bucket the quantile falls in, never more than the largest value seen
+    public long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank && bucketCounts[i] > 0) {
+                long upper = i == 0 ? 0 : (i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    // counts per bucket, bucket i holds values in [2^(i-1), 2^i)
+    public long[] getBucketCounts() {
+        return bucketCounts.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMean() + " p50=" + getP50() + " p99=" + getP99()
+                + " max=" + max;
+    }
+}
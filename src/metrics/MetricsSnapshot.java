@@ -0,0 +1,175 @@
+package metrics;
+
+import java.util.Map;
+
+// the metrics of one node at one moment, as returned by NodeManager.snapshot() and over JMX
+// traffic is counted per message type name, durations are in nanoseconds
+public final class MetricsSnapshot {
+    private final long timeNanos;
+    private final Map<String, Long> packetsSent;
+    private final Map<String, Long> bytesSent;
+    private final Map<String, Long> packetsReceived;
+    private final Map<String, Long> bytesReceived;
+    private final long decodeFailures;
+    private final long truncatedPackets;
+    private final long oversizedMessages;
+    private final long stateTransfers;
+    private final long stateTransferBytes;
+    private final long stateTransferFailures;
+    private final Map<String, Long> bytesSentByZone;
+    private final Map<String, Long> bytesReceivedByZone;
+    private final long crossZoneBytesSent;
+    private final long crossZoneBytesReceived;
+    private final int aliveMembers;
+    private final int suspectMembers;
+    private final int failedMembers;
+    private final HistogramSnapshot mergeNanos;
+    private final HistogramSnapshot heartbeatIntervalNanos;
+    private final HistogramSnapshot detectionLatencyNanos;
+
+    MetricsSnapshot(long timeNanos, Map<String, Long> packetsSent, Map<String, Long> bytesSent,
+                    Map<String, Long> packetsReceived, Map<String, Long> bytesReceived,
+                    long decodeFailures, long truncatedPackets, long oversizedMessages,
+                    long stateTransfers, long stateTransferBytes, long stateTransferFailures,
+                    Map<String, Long> bytesSentByZone, Map<String, Long> bytesReceivedByZone,
+                    long crossZoneBytesSent, long crossZoneBytesReceived,
+                    int aliveMembers, int suspectMembers, int failedMembers,
+                    HistogramSnapshot mergeNanos, HistogramSnapshot heartbeatIntervalNanos,
+                    HistogramSnapshot detectionLatencyNanos) {
+        this.timeNanos = timeNanos;
+        this.packetsSent = packetsSent;
+        this.bytesSent = bytesSent;
+        this.packetsReceived = packetsReceived;
+        this.bytesReceived = bytesReceived;
+        this.decodeFailures = decodeFailures;
+        this.truncatedPackets = truncatedPackets;
+        this.oversizedMessages = oversizedMessages;
+        this.stateTransfers = stateTransfers;
+        this.stateTransferBytes = stateTransferBytes;
+        this.stateTransferFailures = stateTransferFailures;
+        this.bytesSentByZone = bytesSentByZone;
+        this.bytesReceivedByZone = bytesReceivedByZone;
+        this.crossZoneBytesSent = crossZoneBytesSent;
+        this.crossZoneBytesReceived = crossZoneBytesReceived;
+        this.aliveMembers = aliveMembers;
+        this.suspectMembers = suspectMembers;
+        this.failedMembers = failedMembers;
+        this.mergeNanos = mergeNanos;
+        this.heartbeatIntervalNanos = heartbeatIntervalNanos;
+        this.detectionLatencyNanos = detectionLatencyNanos;
+    }
+
+    // the node's clock when the snapshot was taken, to compute rates between two snapshots
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public Map<String, Long> getPacketsSent() {
+        return packetsSent;
+    }
+
+    public Map<String, Long> getBytesSent() {
+        return bytesSent;
+    }
+
+    public Map<String, Long> getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public Map<String, Long> getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // datagrams that were not one of our packets, or not one we can decode
+    public long getDecodeFailures() {
+        return decodeFailures;
+    }
+
+    // datagrams that filled the whole receive buffer, the sender's packet was probably longer
+    public long getTruncatedPackets() {
+        return truncatedPackets;
+    }
+
+    // messages we did not send because they did not fit in a packet
+    public long getOversizedMessages() {
+        return oversizedMessages;
+    }
+
+    // full state exchanges over TCP that went through, see NodeManager.enableStateTransfer
+    public long getStateTransfers() {
+        return stateTransfers;
+    }
+
+    // sent and received by those exchanges
+    public long getStateTransferBytes() {
+        return stateTransferBytes;
+    }
+
+    // exchanges that could not connect, timed out or got something that was not state
+    public long getStateTransferFailures() {
+        return stateTransferFailures;
+    }
+
+    // gossip traffic by the zone of the member at the other end, empty unless we have a zone
+    // (see NodeManager.setZone). Members whose zone we do not know yet count under "(unknown)"
+    public Map<String, Long> getBytesSentByZone() {
+        return bytesSentByZone;
+    }
+
+    public Map<String, Long> getBytesReceivedByZone() {
+        return bytesReceivedByZone;
+    }
+
+    // the part of the above that went to or came from members of other zones than ours
+    public long getCrossZoneBytesSent() {
+        return crossZoneBytesSent;
+    }
+
+    public long getCrossZoneBytesReceived() {
+        return crossZoneBytesReceived;
+    }
+
+    public int getAliveMembers() {
+        return aliveMembers;
+    }
+
+    public int getSuspectMembers() {
+        return suspectMembers;
+    }
+
+    public int getFailedMembers() {
+        return failedMembers;
+    }
+
+    // time to merge the entries of one received message
+    public HistogramSnapshot getMergeNanos() {
+        return mergeNanos;
+    }
+
+    // time between two newer heartbeats of the same member reaching us
+    public HistogramSnapshot getHeartbeatIntervalNanos() {
+        return heartbeatIntervalNanos;
+    }
+
+    // time from the last sign of life of a member to us declaring it failed
+    public HistogramSnapshot getDetectionLatencyNanos() {
+        return detectionLatencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + packetsSent + " (" + bytesSent + " bytes)"
+                + ", received " + packetsReceived + " (" + bytesReceived + " bytes)"
+                + ", decode failures " + decodeFailures
+                + ", truncated " + truncatedPackets
+                + ", oversized " + oversizedMessages
+                + ", state transfers " + stateTransfers + " (" + stateTransferBytes + " bytes, "
+                + stateTransferFailures + " failed)"
+                + ", sent by zone " + bytesSentByZone + " (" + crossZoneBytesSent + " cross zone)"
+                + ", received by zone " + bytesReceivedByZone + " (" + crossZoneBytesReceived + " cross zone)"
+                + ", members alive " + aliveMembers + " suspect " + suspectMembers + " failed " + failedMembers
+                + ", merge [" + mergeNanos + "]"
+                + ", heartbeat interval [" + heartbeatIntervalNanos + "]"
+                + ", detection latency [" + detectionLatencyNanos + "]";
+    }
+}
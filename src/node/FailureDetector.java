@@ -0,0 +1,19 @@
+package node;
+
+// decides, per member, whether it is still alive from the times its heartbeats arrived
+// one instance belongs to one member. Times are System.nanoTime() style monotonic nanoseconds
+public interface FailureDetector {
+    // a newer heartbeat of the member arrived
+    void heartbeat(long nowNanos);
+
+    // how suspicious the silence since the last heartbeat is, 0 means not at all
+    // the scale belongs to the implementation (a ratio of the timeout, phi, ...)
+    double suspicion(long nowNanos);
+
+    // suspicion compared against the detector's own threshold
+    boolean isAvailable(long nowNanos);
+
+    // the earliest time isAvailable turns false if no further heartbeat arrives
+    // lets callers sleep on a deadline instead of polling every member
+    long unavailableAfterNanos();
+}
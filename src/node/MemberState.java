@@ -0,0 +1,11 @@
+package node;
+
+// where a member is in its lifecycle, as seen by the local node
+public enum MemberState {
+    // heard from recently
+    ALIVE,
+    // a probe went unanswered, still counted as alive until the suspicion times out
+    SUSPECT,
+    // declared dead, removed after the cleanup timeout
+    FAILED
+}
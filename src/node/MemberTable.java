@@ -0,0 +1,710 @@
+package node;
+
+import config.Config;
+import journal.EventJournal;
+import timer.Clock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+// struct of arrays member store
+// every member is interned to an int slot and its hot state (id, sequence, last heartbeat, state,
+// suspicion start, incarnation) lives in primitive arrays indexed by that slot. An open addressing
+// index maps the packed NodeId to the slot, so finding a member by the id on the wire is a probe or
+// two into a long[] and never boxes, and scans walk flat arrays instead of chasing map entries.
+// Freed slots are reused, so churn does not grow the arrays
+//
+// Node stays around as the view of one slot, for callers that want an object, and keeps the parts
+// that are objects anyway (address, failure detector, timing wheel entry). When a member is removed
+// its view is handed a Detached copy of the values it had, so a stale reference never reads the
+// slot's next owner
+//
+// Changes take the table's lock. Reading one member's value does not: it checks the slot still
+// belongs to the view, reads the value and checks again, the element writes being releases and the
+// reads acquires. A read that loses the race with a remove or a grow takes the slow path, the view's
+// Detached copy or the lock
+//
+// Every add, remove and state change also notes the member's id for the MembershipView, a sorted
+// copy of who is here in which state for readers that want the whole membership without the lock.
+// The writers publish the next view when they finish a batch of changes (a packet, a state
+// transfer frame, a detection tick, see publishView), merging the noted members into the last one,
+// so a burst of changes costs one pass over the view and reading it is one volatile read
+public class MemberTable {
+    // NodeIds are never negative
+    private static final long EMPTY = -1;
+    private static final MemberState[] STATES = MemberState.values();
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle NODES = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    private long[] ids;
+    // the columns read without the lock, replaced only by grow, which bumps generation after
+    private volatile long[] sequences;
+    private volatile long[] lastSeenNanos;
+    private volatile long[] suspectedSinceNanos;
+    private volatile long[] incarnations;
+    private volatile byte[] states;
+    private volatile Node[] nodes;
+    private volatile int generation = 0;
+
+    // slots below highWater have been handed out at least once, freed ones are kept for reuse
+    private int highWater = 0;
+    private int[] freeSlots;
+    private int freeCount = 0;
+    private int size = 0;
+
+    // NodeId -> slot, linear probing, at most half full
+    private long[] indexKeys;
+    private int[] indexSlots;
+
+    // what the members' times are measured with
+    private final Clock clock;
+    // where the members' heartbeats are recorded, see Node.updateSequenceNumber
+    private volatile EventJournal journal = EventJournal.OFF;
+    // replaced, never changed, by publishView
+    private volatile MembershipView view = MembershipView.EMPTY;
+    // the ids of the members changed since, duplicates included, see noteChanged
+    private long[] changedIds = new long[16];
+    private int changedCount = 0;
+    private boolean rebuildView = false;
+    private volatile boolean viewStale = false;
+
+    public MemberTable(int initialCapacity) {
+        this(initialCapacity, Clock.SYSTEM);
+    }
+
+    public MemberTable(int initialCapacity, Clock clock) {
+        this.clock = clock;
+        int capacity = Math.max(1, initialCapacity);
+        allocate(capacity);
+        allocateIndex(capacity);
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        sequences = new long[capacity];
+        lastSeenNanos = new long[capacity];
+        suspectedSinceNanos = new long[capacity];
+        incarnations = new long[capacity];
+        states = new byte[capacity];
+        nodes = new Node[capacity];
+        freeSlots = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    // the probe loops mask with length - 1, so the index is a power of two, at least twice the slots
+    private void allocateIndex(int capacity) {
+        int indexCapacity = Integer.highestOneBit(capacity * 2 - 1) * 2;
+        indexKeys = new long[indexCapacity];
+        indexSlots = new int[indexCapacity];
+        Arrays.fill(indexKeys, EMPTY);
+    }
+
+    // interns a new member and returns its view, or null if a member with that id is already here
+    public synchronized Node add(InetSocketAddress address, long sequenceNumber, Config config) {
+        if (find(NodeId.of(address)) >= 0) {
+            return null;
+        }
+        return new Node(this, address, sequenceNumber, config);
+    }
+
+    // called by the Node constructor, the view registers itself
+    synchronized int attach(Node node, long sequenceNumber, long nowNanos) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+        ids[slot] = node.getId();
+        sequences[slot] = sequenceNumber;
+        lastSeenNanos[slot] = nowNanos;
+        suspectedSinceNanos[slot] = 0;
+        incarnations[slot] = 0;
+        states[slot] = (byte) MemberState.ALIVE.ordinal();
+        // the values above are visible to whoever sees the owner
+        NODES.setRelease(nodes, slot, node);
+        insertIndex(node.getId(), slot);
+        size++;
+        noteChanged(node.getId());
+        return slot;
+    }
+
+    private int nextSlot() {
+        if (highWater == ids.length) {
+            grow();
+        }
+        return highWater++;
+    }
+
+    // every column is copied before it is published, lock free readers never see a half filled one
+    private void grow() {
+        int capacity = ids.length * 2;
+        long[] grownIds = Arrays.copyOf(ids, capacity);
+        Arrays.fill(grownIds, highWater, capacity, EMPTY);
+        ids = grownIds;
+        sequences = Arrays.copyOf(sequences, capacity);
+        lastSeenNanos = Arrays.copyOf(lastSeenNanos, capacity);
+        suspectedSinceNanos = Arrays.copyOf(suspectedSinceNanos, capacity);
+        incarnations = Arrays.copyOf(incarnations, capacity);
+        states = Arrays.copyOf(states, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        generation++;
+        // nothing is free when we grow, freeSlots only needs the new size
+        freeSlots = new int[capacity];
+
+        long[] oldKeys = indexKeys;
+        int[] oldSlots = indexSlots;
+        allocateIndex(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                insertIndex(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    // removes the member, returns false if the view is not (or no longer) ours
+    public synchronized boolean remove(Node node) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return false;
+        }
+        // hand the view its final values before the slot can be reused
+        node.detach(copyOf(slot));
+        noteChanged(ids[slot]);
+        deleteIndex(ids[slot]);
+        ids[slot] = EMPTY;
+        NODES.setRelease(nodes, slot, null);
+        freeSlots[freeCount++] = slot;
+        size--;
+        return true;
+    }
+
+    public synchronized Node get(long id) {
+        int slot = find(id);
+        return slot < 0 ? null : nodes[slot];
+    }
+
+    public synchronized boolean contains(Node node) {
+        return slotOf(node) >= 0;
+    }
+
+    // the last view published, one volatile read. Changes since then show up with the next publishView
+    public MembershipView view() {
+        return view;
+    }
+
+    // publishes a view with the changes since the last one and returns it, or returns the last one
+    // if nothing changed. Called by whoever changed the table, once per batch of changes
+    public MembershipView publishView() {
+        if (!viewStale) {
+            return view;
+        }
+        synchronized (this) {
+            if (viewStale) {
+                view = rebuildView ? buildView() : mergeView();
+                changedCount = 0;
+                rebuildView = false;
+                viewStale = false;
+            }
+            return view;
+        }
+    }
+
+    // a few changes are merged into the last view, past a quarter of the table it is cheaper to
+    // sort the whole table than the changes
+    private void noteChanged(long id) {
+        viewStale = true;
+        if (rebuildView) {
+            return;
+        }
+        if (changedCount >= Math.max(16, size / 4)) {
+            rebuildView = true;
+            return;
+        }
+        if (changedCount == changedIds.length) {
+            changedIds = Arrays.copyOf(changedIds, changedIds.length * 2);
+        }
+        changedIds[changedCount++] = id;
+    }
+
+    // sorting the ids alone and finding each slot through the index keeps the arrays primitive
+    private MembershipView buildView() {
+        long[] sorted = new long[size];
+        int count = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            if (ids[slot] != EMPTY) {
+                sorted[count++] = ids[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        InetSocketAddress[] addresses = new InetSocketAddress[size];
+        byte[] memberStates = new byte[size];
+        Node[] nodes = this.nodes;
+        byte[] states = this.states;
+        for (int i = 0; i < size; i++) {
+            int slot = find(sorted[i]);
+            addresses[i] = nodes[slot].getSocketAddress();
+            memberStates[i] = states[slot];
+        }
+        return new MembershipView(view.getVersion() + 1, sorted, addresses, memberStates);
+    }
+
+    // one walk over the last view and the sorted changed ids: the runs of unchanged members between
+    // two changed ones are copied as they are, changed ones are looked up and taken as they are
+    // now, or left out if they are gone
+    private MembershipView mergeView() {
+        MembershipView last = view;
+        Arrays.sort(changedIds, 0, changedCount);
+        long[] merged = new long[size];
+        InetSocketAddress[] addresses = new InetSocketAddress[size];
+        byte[] memberStates = new byte[size];
+        Node[] nodes = this.nodes;
+        byte[] states = this.states;
+        int count = 0;
+        int from = 0;
+        for (int j = 0; j < changedCount; j++) {
+            long id = changedIds[j];
+            if (j > 0 && changedIds[j - 1] == id) {
+                continue;
+            }
+            int at = Arrays.binarySearch(last.ids, from, last.ids.length, id);
+            int runEnd = at >= 0 ? at : -at - 1;
+            count = copyRun(last, from, runEnd, merged, addresses, memberStates, count);
+            // a member that was here before is replaced, not copied
+            from = at >= 0 ? at + 1 : runEnd;
+            int slot = find(id);
+            if (slot >= 0) {
+                merged[count] = id;
+                addresses[count] = nodes[slot].getSocketAddress();
+                memberStates[count++] = states[slot];
+            }
+        }
+        copyRun(last, from, last.ids.length, merged, addresses, memberStates, count);
+        return new MembershipView(last.getVersion() + 1, merged, addresses, memberStates);
+    }
+
+    private static int copyRun(MembershipView last, int from, int to, long[] ids, InetSocketAddress[] addresses,
+                               byte[] states, int count) {
+        int length = to - from;
+        System.arraycopy(last.ids, from, ids, count, length);
+        System.arraycopy(last.addresses, from, addresses, count, length);
+        System.arraycopy(last.states, from, states, count, length);
+        return count + length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    // views of all members, a copy, for the slow paths that want objects
+    public synchronized Node[] toArray() {
+        Node[] all = new Node[size];
+        Node[] nodes = this.nodes;
+        int count = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            if (ids[slot] != EMPTY) {
+                all[count++] = nodes[slot];
+            }
+        }
+        return all;
+    }
+
+    // like toArray, but into the caller's array, so walks that run every round do not allocate
+    // returns how many members were copied, or -1 if they do not fit (nothing is copied then)
+    public synchronized int copyTo(Node[] into) {
+        if (into.length < size) {
+            return -1;
+        }
+        Node[] nodes = this.nodes;
+        int count = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            if (ids[slot] != EMPTY) {
+                into[count++] = nodes[slot];
+            }
+        }
+        return count;
+    }
+
+    // up to max (id, sequence) pairs with the smallest ids in [fromId, toId], in ascending id order
+    // one pass over the ids with a bounded max heap, so a page never sorts the whole table
+    public synchronized int page(long fromId, long toId, int max, long[] pageIds, long[] pageSequences) {
+        long[] sequences = this.sequences;
+        int count = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            long id = ids[slot];
+            if (id == EMPTY || id < fromId || id > toId) {
+                continue;
+            }
+            if (count < max) {
+                pageIds[count] = id;
+                pageSequences[count] = sequences[slot];
+                siftUp(pageIds, pageSequences, count++);
+            } else if (id < pageIds[0]) {
+                pageIds[0] = id;
+                pageSequences[0] = sequences[slot];
+                siftDown(pageIds, pageSequences, count);
+            }
+        }
+        // heap sort what is left: pop the largest to the back
+        for (int end = count - 1; end > 0; end--) {
+            swap(pageIds, pageSequences, 0, end);
+            siftDown(pageIds, pageSequences, end);
+        }
+        return count;
+    }
+
+    // adds the number of members in each state to counts, indexed by MemberState ordinal
+    public synchronized void countStates(int[] counts) {
+        byte[] states = this.states;
+        for (int slot = 0; slot < highWater; slot++) {
+            if (ids[slot] != EMPTY) {
+                counts[states[slot]]++;
+            }
+        }
+    }
+
+    public synchronized int countInRange(long fromId, long toId) {
+        int count = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            long id = ids[slot];
+            if (id != EMPTY && id >= fromId && id <= toId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void siftUp(long[] heap, long[] values, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] >= heap[index]) {
+                return;
+            }
+            swap(heap, values, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, long[] values, int length) {
+        int index = 0;
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < length && heap[left] > heap[largest]) {
+                largest = left;
+            }
+            if (right < length && heap[right] > heap[largest]) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(heap, values, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(long[] heap, long[] values, int a, int b) {
+        long id = heap[a];
+        heap[a] = heap[b];
+        heap[b] = id;
+        long value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    // per member state, used by the Node views
+    // the reads follow the class comment: owner, value, owner again, and no grow in between
+
+    long sequence(Node node) {
+        int generation = this.generation;
+        long[] column = sequences;
+        int slot = node.getSlot();
+        if (owns(node, slot, column.length)) {
+            long value = (long) LONGS.getAcquire(column, slot);
+            if (owns(node, slot, column.length) && generation == this.generation) {
+                return value;
+            }
+        }
+        return slowPath(node).sequence;
+    }
+
+    // raises the sequence (and the last seen time) if newer, returns the previous sequence
+    synchronized long advanceSequence(Node node, long sequenceNumber, long nowNanos) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return detached(node).advanceSequence(sequenceNumber, nowNanos);
+        }
+        long previous = sequences[slot];
+        if (sequenceNumber > previous) {
+            LONGS.setRelease(lastSeenNanos, slot, nowNanos);
+            LONGS.setRelease(sequences, slot, sequenceNumber);
+        }
+        return previous;
+    }
+
+    synchronized void incrementSequence(Node node, long nowNanos) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            detached(node).incrementSequence(nowNanos);
+            return;
+        }
+        LONGS.setRelease(lastSeenNanos, slot, nowNanos);
+        LONGS.setRelease(sequences, slot, sequences[slot] + 1);
+    }
+
+    long lastSeen(Node node) {
+        int generation = this.generation;
+        long[] column = lastSeenNanos;
+        int slot = node.getSlot();
+        if (owns(node, slot, column.length)) {
+            long value = (long) LONGS.getAcquire(column, slot);
+            if (owns(node, slot, column.length) && generation == this.generation) {
+                return value;
+            }
+        }
+        return slowPath(node).lastSeenNanos;
+    }
+
+    synchronized void touch(Node node, long nowNanos) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            detached(node).lastSeenNanos = nowNanos;
+            return;
+        }
+        LONGS.setRelease(lastSeenNanos, slot, nowNanos);
+    }
+
+    MemberState state(Node node) {
+        int generation = this.generation;
+        byte[] column = states;
+        int slot = node.getSlot();
+        if (owns(node, slot, column.length)) {
+            byte value = (byte) BYTES.getAcquire(column, slot);
+            if (owns(node, slot, column.length) && generation == this.generation) {
+                return STATES[value];
+            }
+        }
+        return STATES[slowPath(node).state];
+    }
+
+    synchronized void setState(Node node, MemberState state) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            detached(node).state = (byte) state.ordinal();
+            return;
+        }
+        if (states[slot] != state.ordinal()) {
+            BYTES.setRelease(states, slot, (byte) state.ordinal());
+            noteChanged(ids[slot]);
+        }
+    }
+
+    // ALIVE -> SUSPECT, returns false from any other state
+    synchronized boolean markSuspect(Node node, long nowNanos) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return detached(node).markSuspect(nowNanos);
+        }
+        if (states[slot] != MemberState.ALIVE.ordinal()) {
+            return false;
+        }
+        // the time first, whoever sees SUSPECT sees when it began
+        LONGS.setRelease(suspectedSinceNanos, slot, nowNanos);
+        BYTES.setRelease(states, slot, (byte) MemberState.SUSPECT.ordinal());
+        noteChanged(ids[slot]);
+        return true;
+    }
+
+    long suspectedSince(Node node) {
+        int generation = this.generation;
+        long[] column = suspectedSinceNanos;
+        int slot = node.getSlot();
+        if (owns(node, slot, column.length)) {
+            long value = (long) LONGS.getAcquire(column, slot);
+            if (owns(node, slot, column.length) && generation == this.generation) {
+                return value;
+            }
+        }
+        return slowPath(node).suspectedSinceNanos;
+    }
+
+    long incarnation(Node node) {
+        int generation = this.generation;
+        long[] column = incarnations;
+        int slot = node.getSlot();
+        if (owns(node, slot, column.length)) {
+            long value = (long) LONGS.getAcquire(column, slot);
+            if (owns(node, slot, column.length) && generation == this.generation) {
+                return value;
+            }
+        }
+        return slowPath(node).incarnation;
+    }
+
+    // raises the incarnation if newer, returns the previous one
+    synchronized long advanceIncarnation(Node node, long incarnation) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return detached(node).advanceIncarnation(incarnation);
+        }
+        long previous = incarnations[slot];
+        if (incarnation > previous) {
+            LONGS.setRelease(incarnations, slot, incarnation);
+        }
+        return previous;
+    }
+
+    // under the lock
+    private int slotOf(Node node) {
+        int slot = node.getSlot();
+        return node.getTable() == this && slot < highWater && nodes[slot] == node ? slot : -1;
+    }
+
+    // without the lock, columnLength keeps the caller's read inside the column it loaded
+    private boolean owns(Node node, int slot, int columnLength) {
+        Node[] owners = nodes;
+        return slot < columnLength && slot < owners.length && NODES.getAcquire(owners, slot) == node;
+    }
+
+    // a read that lost its race: the view was removed, or the columns grew under it
+    private Detached slowPath(Node node) {
+        Detached detached = node.getDetached();
+        if (detached != null) {
+            return detached;
+        }
+        synchronized (this) {
+            int slot = slotOf(node);
+            return slot >= 0 ? copyOf(slot) : detached(node);
+        }
+    }
+
+    private Detached copyOf(int slot) {
+        return new Detached(sequences[slot], lastSeenNanos[slot], suspectedSinceNanos[slot], incarnations[slot],
+                states[slot]);
+    }
+
+    // the view was removed while the caller held it, its values went with it
+    private static Detached detached(Node node) {
+        Detached detached = node.getDetached();
+        if (detached == null) {
+            throw new IllegalStateException("Node " + node.getUniqueID() + " is not in its table");
+        }
+        return detached;
+    }
+
+    // the values of a removed member, kept by its view and guarded by their own lock
+    static final class Detached {
+        volatile long sequence;
+        volatile long lastSeenNanos;
+        volatile long suspectedSinceNanos;
+        volatile long incarnation;
+        volatile byte state;
+
+        Detached(long sequence, long lastSeenNanos, long suspectedSinceNanos, long incarnation, byte state) {
+            this.sequence = sequence;
+            this.lastSeenNanos = lastSeenNanos;
+            this.suspectedSinceNanos = suspectedSinceNanos;
+            this.incarnation = incarnation;
+            this.state = state;
+        }
+
+        synchronized long advanceSequence(long sequenceNumber, long nowNanos) {
+            long previous = sequence;
+            if (sequenceNumber > previous) {
+                sequence = sequenceNumber;
+                lastSeenNanos = nowNanos;
+            }
+            return previous;
+        }
+
+        synchronized void incrementSequence(long nowNanos) {
+            sequence++;
+            lastSeenNanos = nowNanos;
+        }
+
+        synchronized boolean markSuspect(long nowNanos) {
+            if (state != MemberState.ALIVE.ordinal()) {
+                return false;
+            }
+            suspectedSinceNanos = nowNanos;
+            state = (byte) MemberState.SUSPECT.ordinal();
+            return true;
+        }
+
+        synchronized long advanceIncarnation(long incarnation) {
+            long previous = this.incarnation;
+            if (incarnation > previous) {
+                this.incarnation = incarnation;
+            }
+            return previous;
+        }
+    }
+
+    // open addressing index
+
+    private int find(long id) {
+        int mask = indexKeys.length - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            long key = indexKeys[i];
+            if (key == id) {
+                return indexSlots[i];
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void insertIndex(long id, int slot) {
+        int mask = indexKeys.length - 1;
+        int i = hash(id) & mask;
+        while (indexKeys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        indexKeys[i] = id;
+        indexSlots[i] = slot;
+    }
+
+    // backward shift deletion, keeps probe chains intact without tombstones
+    private void deleteIndex(long id) {
+        int mask = indexKeys.length - 1;
+        int i = hash(id) & mask;
+        while (indexKeys[i] != id) {
+            if (indexKeys[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; indexKeys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(indexKeys[j]) & mask;
+            // move j into the hole unless its home lies cyclically in (hole, j]
+            boolean stays = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!stays) {
+                indexKeys[hole] = indexKeys[j];
+                indexSlots[hole] = indexSlots[j];
+                hole = j;
+            }
+        }
+        indexKeys[hole] = EMPTY;
+    }
+
+    // packed IPv4 ids differ mostly in the low bits of the address and the port, mix them
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,175 @@
+package node;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// the membership at one moment, immutable, see MemberTable.view
+// members being added, removed or changing state (heartbeats do not count) are noted by the table,
+// and whoever changed them publishes the next view, with the next version, once they are done with
+// the batch. Reading it is one volatile read. A reader can hold on to a view for as long as it
+// likes. Members are sorted by id, which makes looking one up a binary search and comparing two
+// views one pass over both
+public final class MembershipView {
+    public static final MembershipView EMPTY =
+            new MembershipView(0, new long[0], new InetSocketAddress[0], new byte[0]);
+
+    private static final MemberState[] STATES = MemberState.values();
+
+    private final long version;
+    // MemberTable.mergeView copies runs of these into the next view
+    final long[] ids;
+    final InetSocketAddress[] addresses;
+    final byte[] states;
+
+    // built on first use, benign races build the same list twice at worst
+    private List<InetSocketAddress> alive;
+    private List<InetSocketAddress> failed;
+
+    MembershipView(long version, long[] ids, InetSocketAddress[] addresses, byte[] states) {
+        this.version = version;
+        this.ids = ids;
+        this.addresses = addresses;
+        this.states = states;
+    }
+
+    // starts at 0 for the empty table and goes up with every view published after a change, a view
+    // may cover several changes
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // the index-th member in id order
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public InetSocketAddress getAddress(int index) {
+        return addresses[index];
+    }
+
+    public MemberState getState(int index) {
+        return STATES[states[index]];
+    }
+
+    // the index of the member with that id, or a negative number if it is not in this view
+    public int indexOf(long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    public boolean contains(InetSocketAddress address) {
+        return indexOf(NodeId.of(address)) >= 0;
+    }
+
+    // null if the member is not in this view
+    public MemberState getState(InetSocketAddress address) {
+        int index = indexOf(NodeId.of(address));
+        return index < 0 ? null : getState(index);
+    }
+
+    // members that have not failed, suspects included, in id order
+    public List<InetSocketAddress> getAliveMembers() {
+        List<InetSocketAddress> list = alive;
+        if (list == null) {
+            list = collect(false);
+            alive = list;
+        }
+        return list;
+    }
+
+    public List<InetSocketAddress> getFailedMembers() {
+        List<InetSocketAddress> list = failed;
+        if (list == null) {
+            list = collect(true);
+            failed = list;
+        }
+        return list;
+    }
+
+    private List<InetSocketAddress> collect(boolean hasFailed) {
+        List<InetSocketAddress> list = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (isFailed(i) == hasFailed) {
+                list.add(addresses[i]);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private boolean isFailed(int index) {
+        return states[index] == MemberState.FAILED.ordinal();
+    }
+
+    // what changed for the alive members between an older view and this one
+    public Diff diff(MembershipView older) {
+        List<InetSocketAddress> added = new ArrayList<>();
+        List<InetSocketAddress> removed = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < ids.length || j < older.ids.length) {
+            long id = i < ids.length ? ids[i] : Long.MAX_VALUE;
+            long olderId = j < older.ids.length ? older.ids[j] : Long.MAX_VALUE;
+            boolean isAlive = id <= olderId && i < ids.length && !isFailed(i);
+            boolean wasAlive = olderId <= id && j < older.ids.length && !older.isFailed(j);
+            if (isAlive && !wasAlive) {
+                added.add(addresses[i]);
+            } else if (wasAlive && !isAlive) {
+                removed.add(older.addresses[j]);
+            }
+            if (id <= olderId) {
+                i++;
+            }
+            if (olderId <= id) {
+                j++;
+            }
+        }
+        return new Diff(older.version, version, added, removed);
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipView{version=" + version + ", members=" + ids.length + "}";
+    }
+
+    // the alive members that appeared and disappeared between two versions
+    // a member that failed counts as removed, one that came back from failed as added
+    public static final class Diff {
+        private final long fromVersion;
+        private final long toVersion;
+        private final List<InetSocketAddress> added;
+        private final List<InetSocketAddress> removed;
+
+        Diff(long fromVersion, long toVersion, List<InetSocketAddress> added, List<InetSocketAddress> removed) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        public long getFromVersion() {
+            return fromVersion;
+        }
+
+        public long getToVersion() {
+            return toVersion;
+        }
+
+        public List<InetSocketAddress> getAdded() {
+            return added;
+        }
+
+        public List<InetSocketAddress> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -1,45 +1,91 @@
 package node;
 
 import config.Config;
+import journal.JournalEvent;
+import journal.JournalLevel;
+import timer.TimingWheel;
 
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.time.Duration;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
 
 //TODO: implement NAK operation (ask for newest messages if not received after period of time)
 public class Node implements Serializable {
     // port number in a cluster, used for communication
     private final InetSocketAddress address;
 
-    // keeps incrementing as some other node communicates with this one, or other way around too
-    // this allows for syncing in communication -> allows all nodes to keep track of latestw
-    // heart beat sequences
-    private long heartbeatSequenceNumber = 0;
+    // numeric identity derived from the address, see NodeId
+    private final long id;
 
-    //the most recent time it communicated with a node
-    private LocalDateTime lastUpdatedTime = null;
+    // the membership key, fixed at creation: the address' toString changes once something
+    // resolves its host name, and the key must not
+    private final String uniqueId;
 
-    // whether node is failed or not
-    private volatile boolean failed = false;
+    // where the rest of the state lives: the heartbeat sequence number, which keeps incrementing
+    // as some other node communicates with this one (or other way around too), the most recent
+    // time it communicated with a node, whether it is alive, suspected or failed, ...
+    // see MemberTable. A node created on its own gets a table of its own
+    private final transient MemberTable table;
+    private final int slot;
+    // the values we had when the table removed us, null while we are a member
+    private transient volatile MemberTable.Detached detached;
 
     // the configuration for the node
     private Config config;
 
+    // decides when this node counts as failed, a fixed timeout unless replaced
+    private FailureDetector failureDetector;
+
+    // the availability zone (rack, datacenter) the member runs in, null until we know it
+    // the UTF-8 form is kept next to the label, it is what goes into entries
+    private volatile String zone;
+    private volatile byte[] zoneBytes;
+
+    // this node's slot in the NodeManager's timing wheel, rescheduled in place
+    private final transient TimingWheel.Entry<Node> deadline = new TimingWheel.Entry<>(this);
+
     public Node(InetSocketAddress address,
                 long initialSequenceNumber,
                 Config config) {
+        this(new MemberTable(1), address, initialSequenceNumber, config);
+    }
+
+    public Node(String host, int port, Config config) {
+        this(new InetSocketAddress(host, port), 0, config);
+    }
+
+    // a member of the given table, see MemberTable.add
+    Node(MemberTable table, InetSocketAddress address, long initialSequenceNumber, Config config) {
         this.address = address;
-        this.heartbeatSequenceNumber = initialSequenceNumber;
+        this.id = NodeId.of(address);
+        this.uniqueId = address.toString();
         this.config = config;
+        this.failureDetector = new TimeoutFailureDetector(config.nodeFailureTimeout);
+        this.table = table;
+        this.slot = table.attach(this, initialSequenceNumber, table.getClock().nanoTime());
         setLastUpdatedTime();
     }
 
-    public Node(String host, int port, Config config) {
-        address = new InetSocketAddress(host, port);
-        this.config = config;
-        this.setLastUpdatedTime();
+    private long now() {
+        return table.getClock().nanoTime();
+    }
+
+    MemberTable getTable() {
+        return table;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    MemberTable.Detached getDetached() {
+        return detached;
+    }
+
+    // the table removed us, our values now live in the copy
+    void detach(MemberTable.Detached detached) {
+        this.detached = detached;
     }
 
     public void setConfig(Config config) {
@@ -50,6 +96,16 @@ public class Node implements Serializable {
         return config;
     }
 
+    // the new detector starts from our last heartbeat
+    public void setFailureDetector(FailureDetector failureDetector) {
+        failureDetector.heartbeat(getLastUpdatedNanos());
+        this.failureDetector = failureDetector;
+    }
+
+    public FailureDetector getFailureDetector() {
+        return failureDetector;
+    }
+
     public String getAddress() {
         return address.getAddress().getHostAddress();
     }
@@ -67,69 +123,150 @@ public class Node implements Serializable {
     }
 
     public long getSequenceNumber() {
-        return heartbeatSequenceNumber;
+        return table.sequence(this);
+    }
+
+    // bumped by the member itself to refute a suspicion of it
+    public long getIncarnation() {
+        return table.incarnation(this);
+    }
+
+    public void updateIncarnation(long incarnation) {
+        table.advanceIncarnation(this, incarnation);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public byte[] getZoneBytes() {
+        return zoneBytes;
+    }
+
+    public synchronized void setZone(String zone) {
+        this.zoneBytes = zone == null ? null : zone.getBytes(StandardCharsets.UTF_8);
+        this.zone = zone;
     }
 
     public String getUniqueID() {
-        return address.toString();
+        return uniqueId;
     }
 
     public void setLastUpdatedTime() {
-        LocalDateTime updatedTime = LocalDateTime.now();
-        System.out.println("Node " + this.getUniqueID() + " updated at " + updatedTime);
-        lastUpdatedTime = updatedTime;
+        long now = now();
+        table.touch(this, now);
+        failureDetector.heartbeat(now);
+    }
+
+    public long getLastUpdatedNanos() {
+        return table.lastSeen(this);
+    }
+
+    public TimingWheel.Entry<Node> getDeadline() {
+        return deadline;
     }
 
     public void updateSequenceNumber(long newSequenceNumber) {
-        if (newSequenceNumber > heartbeatSequenceNumber) {
-            System.out.println("Sequence number of current node " + this.getUniqueID() + " updated from "
-                    + getSequenceNumber() + " to " + newSequenceNumber);
-            heartbeatSequenceNumber = newSequenceNumber;
+        long previous = table.advanceSequence(this, newSequenceNumber, now());
+        if (newSequenceNumber > previous) {
+            table.getJournal().record(JournalLevel.DEBUG, JournalEvent.SEQUENCE_ADVANCED, id,
+                    newSequenceNumber, (int) Math.min(Integer.MAX_VALUE, newSequenceNumber - previous));
             setLastUpdatedTime();
         }
     }
 
     public void incrementSequenceNumber() {
-        heartbeatSequenceNumber++;
+        table.incrementSequence(this, now());
+        table.getJournal().record(JournalLevel.DEBUG, JournalEvent.SEQUENCE_ADVANCED, id, getSequenceNumber(), 1);
         setLastUpdatedTime();
     }
 
     public void setFailed(boolean failed) {
-        this.failed = failed;
+        table.setState(this, failed ? MemberState.FAILED : MemberState.ALIVE);
+    }
+
+    public MemberState getState() {
+        return table.state(this);
+    }
+
+    // returns false if the node was not ALIVE (already suspected, or failed)
+    public boolean markSuspect(long nowNanos) {
+        return table.markSuspect(this, nowNanos);
+    }
+
+    public boolean isSuspect() {
+        return getState() == MemberState.SUSPECT;
+    }
+
+    public long getSuspectedSinceNanos() {
+        return table.suspectedSince(this);
     }
 
-    // get the time limit from config. If the lastUpdatedTime is after + time limit is past the time now,
-    // then mark the node as failed
+    // ask the failure detector whether the silence since the last heartbeat is too long,
+    // and if so mark the node as failed
     public void checkIfFailed() {
-        LocalDateTime failureTime = lastUpdatedTime.plus(config.nodeFailureTimeout);
-        LocalDateTime now = LocalDateTime.now();
-        if (now.isAfter(failureTime)) {
+        if (!failureDetector.isAvailable(now())) {
+            setFailed(true);
+        }
+    }
+
+    // same, with the silence since the last heartbeat counted stretch times slower: a node that
+    // cannot trust its own timers gives its members that much longer
+    public void checkIfFailed(int stretch) {
+        if (stretch <= 1) {
+            checkIfFailed();
+            return;
+        }
+        long last = getLastUpdatedNanos();
+        if (!failureDetector.isAvailable(last + (now() - last) / stretch)) {
             setFailed(true);
         }
-        // failed = now.isAfter(failureTime);
+    }
+
+    // the detector's current suspicion, for callers that want their own threshold
+    public double getSuspicionLevel() {
+        return failureDetector.suspicion(now());
+    }
+
+    // when the detector gives up on this node if no further heartbeat arrives
+    public long getUnavailableAfterNanos() {
+        return failureDetector.unavailableAfterNanos();
+    }
+
+    // same, for checkIfFailed(stretch)
+    public long getUnavailableAfterNanos(int stretch) {
+        long last = getLastUpdatedNanos();
+        return last + (failureDetector.unavailableAfterNanos() - last) * Math.max(1, stretch);
+    }
+
+    // when a failed node gets removed from the membership list
+    public long getCleanupDeadlineNanos() {
+        return getLastUpdatedNanos() + config.nodeFailureTimeout.toNanos()
+                + config.nodeCleanupTimeout.toNanos();
     }
 
     // implemented to let us know if we should remove node from membership list
     public boolean shouldCleanup() {
-        if (failed) {
-            Duration cleanupTimeout = config.nodeFailureTimeout.plus(config.nodeCleanupTimeout);
-            LocalDateTime cleanupTime = lastUpdatedTime.plus(cleanupTimeout);
-
-            return LocalDateTime.now().isAfter(cleanupTime);
+        if (hasFailed()) {
+            return now() - getCleanupDeadlineNanos() > 0;
         } else {
             return false;
         }
     }
 
     public boolean hasFailed() {
-        return failed;
+        return getState() == MemberState.FAILED;
     }
 
     // this is the message that will be sent to other nodes
     public String getNetworkMessage() {
         return "[" + address.getHostName()
                 + ":" + address.getPort() +
-                " - " + heartbeatSequenceNumber + "]";
+                " - " + getSequenceNumber() + "]";
     }
 
 
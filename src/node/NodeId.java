@@ -0,0 +1,59 @@
+package node;
+
+import java.net.InetSocketAddress;
+
+// compact numeric identity of a member, used on the wire (digests) and for lookups
+// IPv4 members pack exactly: 32 bit address in bits 16-47, port in bits 0-15, so the id can be
+// turned back into an address. IPv6 members get a 64 bit hash with bit 62 set, which can never
+// collide with a packed IPv4 id. Ids are never negative, digests rely on that for their ranges
+public final class NodeId {
+    public static final long MIN = 0;
+    public static final long MAX = Long.MAX_VALUE;
+
+    private static final long IPV6_FLAG = 1L << 62;
+
+    private NodeId() {
+    }
+
+    public static long of(InetSocketAddress address) {
+        byte[] bytes = address.getAddress().getAddress();
+        return of(bytes, bytes.length, address.getPort());
+    }
+
+    public static long of(byte[] address, int addressLength, int port) {
+        if (addressLength == 4) {
+            long ip = ((address[0] & 0xFFL) << 24)
+                    | ((address[1] & 0xFFL) << 16)
+                    | ((address[2] & 0xFFL) << 8)
+                    | (address[3] & 0xFFL);
+            return (ip << 16) | (port & 0xFFFF);
+        }
+        long hash = 1125899906842597L;
+        for (int i = 0; i < addressLength; i++) {
+            hash = 31 * hash + address[i];
+        }
+        hash = 31 * hash + port;
+        // spread the bits, the plain polynomial hash clusters on similar addresses
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (hash & (IPV6_FLAG - 1)) | IPV6_FLAG;
+    }
+
+    public static boolean isIpv4(long id) {
+        return id >= 0 && id < (1L << 48);
+    }
+
+    public static int port(long id) {
+        return (int) (id & 0xFFFF);
+    }
+
+    // writes the 4 address bytes of a packed IPv4 id
+    public static void ipv4(long id, byte[] into) {
+        long ip = id >>> 16;
+        into[0] = (byte) (ip >>> 24);
+        into[1] = (byte) (ip >>> 16);
+        into[2] = (byte) (ip >>> 8);
+        into[3] = (byte) ip;
+    }
+}
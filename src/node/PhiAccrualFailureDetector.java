@@ -0,0 +1,157 @@
+package node;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+// phi accrual failure detector (Hayashibara et al.)
+// instead of a yes/no timeout it reports phi = -log10(probability that a heartbeat this late would
+// still arrive), based on the mean and deviation of recent inter-arrival times. phi 1 means a 10%
+// chance we are wrong to suspect the member, phi 8 means 0.000001%. A member is unavailable once phi
+// passes the threshold, so a jittery network raises the bar by itself while a steady one reacts fast
+//
+// inter-arrival times live in a ring, with a running sum and sum of squares, so recording a
+// heartbeat and computing phi are O(1). The ring starts small and doubles until it holds
+// windowSize samples, after which it never allocates again; a member only heard from a few
+// times does not pay for a full window, while the default window stays 1000 samples, so a member
+// heard from for long is judged on the same history as before the ring grew
+public class PhiAccrualFailureDetector implements FailureDetector {
+    private final double threshold;
+    // how many deviations past the mean phi reaches the threshold, see thresholdDeviations
+    private final double thresholdDeviations;
+    private final long minStdDeviationNanos;
+    private final long acceptablePauseNanos;
+
+    // the ring starts with this many slots at most
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int windowSize;
+    private long[] intervals;
+    private int count = 0;
+    private int next = 0;
+    private double sum = 0;
+    private double squaredSum = 0;
+
+    // 0 until the first heartbeat, which only sets the starting point
+    private long lastHeartbeatNanos;
+    private boolean started = false;
+
+    // threshold: phi at which the member counts as failed, 8 to 12 are usual values
+    // windowSize: how many inter-arrival times to remember
+    // minStdDeviation: floor for the deviation, so very regular heartbeats do not make phi explode
+    // acceptablePause: extra silence tolerated on top of the mean, e.g. for GC pauses
+    // firstHeartbeatEstimate: expected interval, used until real samples come in
+    public PhiAccrualFailureDetector(double threshold, int windowSize, Duration minStdDeviation,
+                                     Duration acceptablePause, Duration firstHeartbeatEstimate) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Window needs at least 2 samples, got " + windowSize);
+        }
+        this.threshold = threshold;
+        this.thresholdDeviations = thresholdDeviations(threshold);
+        this.minStdDeviationNanos = minStdDeviation.toNanos();
+        this.acceptablePauseNanos = acceptablePause.toNanos();
+        this.windowSize = windowSize;
+        this.intervals = new long[Math.min(windowSize, INITIAL_CAPACITY)];
+
+        // seed the window with the estimate +- a quarter, so phi is meaningful from the start
+        long estimate = firstHeartbeatEstimate.toNanos();
+        long deviation = estimate / 4;
+        add(estimate - deviation);
+        add(estimate + deviation);
+    }
+
+    // phi 8, 1000 samples, 100 ms minimum deviation and no extra pause
+    public PhiAccrualFailureDetector(Duration firstHeartbeatEstimate) {
+        this(8.0, 1000, Duration.ofMillis(100), Duration.ZERO, firstHeartbeatEstimate);
+    }
+
+    @Override
+    public synchronized void heartbeat(long nowNanos) {
+        if (!started) {
+            started = true;
+            lastHeartbeatNanos = nowNanos;
+            return;
+        }
+        long interval = nowNanos - lastHeartbeatNanos;
+        lastHeartbeatNanos = nowNanos;
+        if (interval > 0) {
+            add(interval);
+        }
+    }
+
+    private void add(long interval) {
+        if (count == intervals.length && count < windowSize) {
+            // full but not yet the whole window: nothing was evicted, so the samples are in order
+            intervals = Arrays.copyOf(intervals, Math.min(windowSize, count * 2));
+            next = count;
+        }
+        if (count == intervals.length) {
+            long evicted = intervals[next];
+            sum -= evicted;
+            squaredSum -= (double) evicted * evicted;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        squaredSum += (double) interval * interval;
+    }
+
+    @Override
+    public synchronized double suspicion(long nowNanos) {
+        if (!started) {
+            return 0;
+        }
+        double elapsed = nowNanos - lastHeartbeatNanos;
+        return phi(elapsed, mean(), deviation());
+    }
+
+    @Override
+    public synchronized long unavailableAfterNanos() {
+        if (!started) {
+            return Long.MAX_VALUE;
+        }
+        return lastHeartbeatNanos + (long) Math.ceil(mean() + thresholdDeviations * deviation());
+    }
+
+    private double mean() {
+        return sum / count + acceptablePauseNanos;
+    }
+
+    private double deviation() {
+        double variance = squaredSum / count - (sum / count) * (sum / count);
+        return Math.max(Math.sqrt(Math.max(variance, 0)), minStdDeviationNanos);
+    }
+
+    // logistic approximation of the normal cumulative distribution, as used by Akka and Cassandra
+    // accurate to about 0.0002 and much cheaper than erf
+    static double phi(double elapsed, double mean, double deviation) {
+        double y = (elapsed - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    // inverts phi: both branches above reduce to phi = -log10(e / (1 + e)), so phi = threshold
+    // means y * (1.5976 + 0.070566 * y^2) = ln((1 - p) / p) with p = 10^-threshold. That cubic is
+    // strictly increasing, Cardano's formula gives its one real root
+    static double thresholdDeviations(double threshold) {
+        double p = Math.pow(10, -threshold);
+        double target = Math.log((1.0 - p) / p);
+        double linear = 1.5976 / 0.070566;
+        double constant = -target / 0.070566;
+        double root = Math.sqrt(constant * constant / 4 + linear * linear * linear / 27);
+        return Math.cbrt(-constant / 2 + root) + Math.cbrt(-constant / 2 - root);
+    }
+
+    @Override
+    public boolean isAvailable(long nowNanos) {
+        return suspicion(nowNanos) < threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,35 @@
+package node;
+
+import java.time.Duration;
+
+// the original rule: a member is failed once nothing arrived for a fixed timeout
+// suspicion is the fraction of the timeout that has passed, so it crosses 1 when the member fails
+public class TimeoutFailureDetector implements FailureDetector {
+    private final long timeoutNanos;
+    private volatile long lastHeartbeatNanos;
+
+    public TimeoutFailureDetector(Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+        this.lastHeartbeatNanos = System.nanoTime();
+    }
+
+    @Override
+    public void heartbeat(long nowNanos) {
+        lastHeartbeatNanos = nowNanos;
+    }
+
+    @Override
+    public double suspicion(long nowNanos) {
+        return (double) Math.max(0, nowNanos - lastHeartbeatNanos) / timeoutNanos;
+    }
+
+    @Override
+    public boolean isAvailable(long nowNanos) {
+        return nowNanos - lastHeartbeatNanos <= timeoutNanos;
+    }
+
+    @Override
+    public long unavailableAfterNanos() {
+        return lastHeartbeatNanos + timeoutNanos + 1;
+    }
+}
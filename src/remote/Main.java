@@ -41,16 +41,21 @@ public class Main {
         return new InetSocketAddress(ipAddress, port);
     }
 
-    private static void startInitialNode(InetSocketAddress listeningAddress) {
-        Config config = new Config(
+    // the same for the first node and the ones joining it, adaptive timing picks the pace from
+    // there: faster rounds while members come and go, longer timeouts as the cluster grows
+    private static Config config() {
+        return new Config(
                 Duration.ofSeconds(4),
                 Duration.ofSeconds(3),
-                Duration.ofMillis(6000),
-                Duration.ofMillis(4500),
+                Duration.ofMillis(1000),
+                Duration.ofMillis(1000),
                 1
         );
+    }
 
-        NodeManager initialNode = new NodeManager(listeningAddress, config);
+    private static void startInitialNode(InetSocketAddress listeningAddress) {
+        NodeManager initialNode = new NodeManager(listeningAddress, config());
+        initialNode.enableAdaptiveTiming();
 
         // this is where we override the update method from Updater to what we please
         initialNode.setOnFailedNodeHandler((inetSocketAddress) -> {
@@ -74,15 +79,8 @@ public class Main {
     }
 
     private static void startNodeWithExistingNode(InetSocketAddress listeningAddress, InetSocketAddress existingNodeAddress) {
-        Config config = new Config(
-                Duration.ofSeconds(4),
-                Duration.ofSeconds(3),
-                Duration.ofMillis(4000),
-                Duration.ofMillis(4500),
-                1
-        );
-
-        NodeManager node = new NodeManager(listeningAddress, existingNodeAddress, config);
+        NodeManager node = new NodeManager(listeningAddress, existingNodeAddress, config());
+        node.enableAdaptiveTiming();
 
         // this is where we override the update method from Updater to what we please
         node.setOnFailedNodeHandler((inetSocketAddress) -> {
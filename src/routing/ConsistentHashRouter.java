@@ -0,0 +1,196 @@
+package routing;
+
+import node.NodeId;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// a consistent hash ring with virtual nodes (Karger et al.)
+// every member owns virtualNodes tokens on a ring of longs, derived from its NodeId alone, so every
+// node that sees the same members builds the same ring. A key belongs to the owner of the first
+// token at or after its hash, wrapping around; the next distinct owners clockwise are its replicas.
+// A member joining or leaving only moves the keys between its own tokens and their predecessors
+//
+// the ring is two sorted arrays, tokens and their owners, replaced as a whole on every change:
+// only the tokens of the members that came or went are hashed and sorted, then merged with the
+// survivors in one pass. Lookups are a binary search into whatever ring was current when they began
+public class ConsistentHashRouter extends MembershipRouter {
+    private final int virtualNodes;
+    private volatile Ring ring = Ring.EMPTY;
+
+    public ConsistentHashRouter(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Every member needs at least one token, got " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    private static final class Ring {
+        static final Ring EMPTY = new Ring(new long[0], new InetSocketAddress[0], 0);
+
+        final long[] tokens;
+        final InetSocketAddress[] owners;
+        final int members;
+
+        Ring(long[] tokens, InetSocketAddress[] owners, int members) {
+            this.tokens = tokens;
+            this.owners = owners;
+            this.members = members;
+        }
+
+        // where a key's walk around the ring starts
+        int start(long keyHash) {
+            int index = Arrays.binarySearch(tokens, keyHash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == tokens.length ? 0 : index;
+        }
+    }
+
+    @Override
+    public InetSocketAddress route(long keyHash) {
+        Ring ring = this.ring;
+        if (ring.members == 0) {
+            return null;
+        }
+        return ring.owners[ring.start(keyHash)];
+    }
+
+    @Override
+    public int route(long keyHash, InetSocketAddress[] owners) {
+        Ring ring = this.ring;
+        int wanted = Math.min(owners.length, ring.members);
+        if (wanted == 0) {
+            return 0;
+        }
+        int count = 0;
+        int index = ring.start(keyHash);
+        for (int steps = 0; count < wanted && steps < ring.tokens.length; steps++) {
+            InetSocketAddress owner = ring.owners[index];
+            if (!contains(owners, count, owner)) {
+                owners[count++] = owner;
+            }
+            index = index + 1 == ring.tokens.length ? 0 : index + 1;
+        }
+        return count;
+    }
+
+    private static boolean contains(InetSocketAddress[] owners, int count, InetSocketAddress owner) {
+        for (int i = 0; i < count; i++) {
+            if (owners[i].equals(owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return ring.members;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    // the replica-th token of a member
+    static long token(long id, int replica) {
+        return Router.mix(Router.mix(id) + replica);
+    }
+
+    @Override
+    protected void update(List<InetSocketAddress> added, List<InetSocketAddress> removed) {
+        Ring old = ring;
+        Set<InetSocketAddress> gone = new HashSet<>(removed);
+
+        // the new members' tokens, sorted by themselves
+        int addedTokens = added.size() * virtualNodes;
+        long[] newTokens = new long[addedTokens];
+        InetSocketAddress[] newOwners = new InetSocketAddress[addedTokens];
+        int count = 0;
+        for (InetSocketAddress member : added) {
+            long id = NodeId.of(member);
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                newTokens[count] = token(id, replica);
+                newOwners[count++] = member;
+            }
+        }
+        sort(newTokens, newOwners);
+
+        // one merge of the survivors and the newcomers
+        int length = old.tokens.length - gone.size() * virtualNodes + addedTokens;
+        long[] tokens = new long[length];
+        InetSocketAddress[] owners = new InetSocketAddress[length];
+        int next = 0;
+        int i = 0;
+        int j = 0;
+        while (i < old.tokens.length || j < addedTokens) {
+            if (i < old.tokens.length && gone.contains(old.owners[i])) {
+                i++;
+                continue;
+            }
+            boolean takeOld = j == addedTokens
+                    || (i < old.tokens.length && before(old.tokens[i], old.owners[i], newTokens[j], newOwners[j]));
+            if (takeOld) {
+                tokens[next] = old.tokens[i];
+                owners[next++] = old.owners[i++];
+            } else {
+                tokens[next] = newTokens[j];
+                owners[next++] = newOwners[j++];
+            }
+        }
+        ring = new Ring(tokens, owners, old.members - gone.size() + added.size());
+    }
+
+    // ring order: by token, and by owner id for the rare tokens two members share, so every node
+    // breaks the tie the same way
+    private static boolean before(long token, InetSocketAddress owner, long otherToken, InetSocketAddress other) {
+        if (token != otherToken) {
+            return token < otherToken;
+        }
+        return NodeId.of(owner) < NodeId.of(other);
+    }
+
+    // heap sort of the tokens, their owners moving along
+    private static void sort(long[] tokens, InetSocketAddress[] owners) {
+        for (int i = tokens.length / 2 - 1; i >= 0; i--) {
+            siftDown(tokens, owners, i, tokens.length);
+        }
+        for (int end = tokens.length - 1; end > 0; end--) {
+            swap(tokens, owners, 0, end);
+            siftDown(tokens, owners, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] tokens, InetSocketAddress[] owners, int index, int length) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < length && before(tokens[largest], owners[largest], tokens[left], owners[left])) {
+                largest = left;
+            }
+            if (right < length && before(tokens[largest], owners[largest], tokens[right], owners[right])) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(tokens, owners, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(long[] tokens, InetSocketAddress[] owners, int a, int b) {
+        long token = tokens[a];
+        tokens[a] = tokens[b];
+        tokens[b] = token;
+        InetSocketAddress owner = owners[a];
+        owners[a] = owners[b];
+        owners[b] = owner;
+    }
+}
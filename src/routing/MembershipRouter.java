@@ -0,0 +1,58 @@
+package routing;
+
+import node.MembershipView;
+import service.MembershipEvent;
+import service.MembershipListener;
+import service.NodeManager;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+// a router that keeps up with a node's alive members by itself
+// after every batch of membership changes it diffs the node's current MembershipView against the
+// last one it applied and hands only the members that came and went to the implementation. The
+// events themselves are only the signal, so a batch the dispatcher dropped or coalesced costs
+// nothing but a later sync. Suspects are routed to, failed members are not
+public abstract class MembershipRouter implements Router, MembershipListener {
+    // the view the router's state matches, guarded by this
+    private MembershipView synced = MembershipView.EMPTY;
+    private volatile NodeManager node;
+
+    // follows the node from now on, starting with its current members. Listeners belong to the
+    // node's event dispatcher, so call this after setEventDispatcher
+    public void follow(NodeManager node) {
+        this.node = node;
+        node.addMembershipListener(this);
+        sync(node.getMembershipView());
+    }
+
+    @Override
+    public void onChanges(List<MembershipEvent> changes) {
+        NodeManager node = this.node;
+        if (node != null) {
+            sync(node.getMembershipView());
+        }
+    }
+
+    // brings the router up to the given view of the followed node, or of any one node as long as
+    // it is always the same. Views older than the last one applied are ignored
+    public synchronized void sync(MembershipView view) {
+        if (view.getVersion() <= synced.getVersion()) {
+            return;
+        }
+        MembershipView.Diff diff = view.diff(synced);
+        synced = view;
+        if (!diff.isEmpty()) {
+            update(diff.getAdded(), diff.getRemoved());
+        }
+    }
+
+    // the version of the last view applied
+    public synchronized long getVersion() {
+        return synced.getVersion();
+    }
+
+    // applies one diff: added are not routed to yet, removed are, both in id order. Called with
+    // the router's lock held, lookups keep going on the previous state until the new one is published
+    protected abstract void update(List<InetSocketAddress> added, List<InetSocketAddress> removed);
+}
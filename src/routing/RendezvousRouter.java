@@ -0,0 +1,116 @@
+package routing;
+
+import node.NodeId;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// highest random weight hashing (Thaler and Ravishankar)
+// every member scores every key with a hash of the two, the highest score owns the key and the
+// next highest are its replicas. No tokens to keep, a member joining takes an even share of keys
+// from everybody and one leaving hands its keys out evenly, at the price of a lookup that scores
+// every member: O(members) per owner, against the ring's binary search. Suits up to a few hundred
+// members, or lookups that want several owners spread evenly
+//
+// the state is the members and their mixed ids in id order, replaced as a whole on every change
+public class RendezvousRouter extends MembershipRouter {
+    private volatile Members members = Members.EMPTY;
+
+    private static final class Members {
+        static final Members EMPTY = new Members(new long[0], new long[0], new InetSocketAddress[0]);
+
+        final long[] ids;
+        // Router.mix of each member's NodeId, what its scores are derived from
+        final long[] seeds;
+        final InetSocketAddress[] addresses;
+
+        Members(long[] ids, long[] seeds, InetSocketAddress[] addresses) {
+            this.ids = ids;
+            this.seeds = seeds;
+            this.addresses = addresses;
+        }
+    }
+
+    static long score(long keyHash, long seed) {
+        return Router.mix(keyHash ^ seed);
+    }
+
+    @Override
+    public InetSocketAddress route(long keyHash) {
+        Members members = this.members;
+        int best = -1;
+        long bestScore = 0;
+        for (int i = 0; i < members.seeds.length; i++) {
+            long score = score(keyHash, members.seeds[i]);
+            if (best < 0 || score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best < 0 ? null : members.addresses[best];
+    }
+
+    // one pass per owner, each taking the best score below the previous owner's. Scores tie only
+    // when two seeds are equal, the member earlier in id order wins then
+    @Override
+    public int route(long keyHash, InetSocketAddress[] owners) {
+        Members members = this.members;
+        int wanted = Math.min(owners.length, members.seeds.length);
+        long limit = 0;
+        int limitIndex = -1;
+        for (int count = 0; count < wanted; count++) {
+            int best = -1;
+            long bestScore = 0;
+            for (int i = 0; i < members.seeds.length; i++) {
+                long score = score(keyHash, members.seeds[i]);
+                boolean belowLimit = limitIndex < 0 || score < limit || (score == limit && i > limitIndex);
+                if (belowLimit && (best < 0 || score > bestScore)) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            owners[count] = members.addresses[best];
+            limit = bestScore;
+            limitIndex = best;
+        }
+        return wanted;
+    }
+
+    @Override
+    public int size() {
+        return members.seeds.length;
+    }
+
+    // added come in id order from the view diff, so this is one merge with the survivors
+    @Override
+    protected void update(List<InetSocketAddress> added, List<InetSocketAddress> removed) {
+        Members old = members;
+        Set<InetSocketAddress> gone = new HashSet<>(removed);
+        int length = old.ids.length - gone.size() + added.size();
+        long[] ids = new long[length];
+        InetSocketAddress[] addresses = new InetSocketAddress[length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        long addedId = j < added.size() ? NodeId.of(added.get(j)) : Long.MAX_VALUE;
+        while (i < old.ids.length || j < added.size()) {
+            if (i < old.ids.length && gone.contains(old.addresses[i])) {
+                i++;
+            } else if (j == added.size() || (i < old.ids.length && old.ids[i] < addedId)) {
+                ids[count] = old.ids[i];
+                addresses[count++] = old.addresses[i++];
+            } else {
+                ids[count] = addedId;
+                addresses[count++] = added.get(j++);
+                addedId = j < added.size() ? NodeId.of(added.get(j)) : Long.MAX_VALUE;
+            }
+        }
+        long[] seeds = new long[length];
+        for (int k = 0; k < length; k++) {
+            seeds[k] = Router.mix(ids[k]);
+        }
+        members = new Members(ids, seeds, addresses);
+    }
+}
@@ -0,0 +1,43 @@
+package routing;
+
+import java.net.InetSocketAddress;
+
+// picks the member(s) that own a key, e.g. the backends a request goes to
+// keys are 64 bit hashes, hash() turns strings and bytes into one. Lookups read one immutable
+// snapshot of the router's state and never lock or allocate, so they are safe to call from any
+// number of threads while the router follows the membership (see MembershipRouter)
+public interface Router {
+    // the member that owns the key, null if there are no members
+    InetSocketAddress route(long keyHash);
+
+    // the members that own the key in order of preference, as many as fit in owners and no member
+    // twice; returns how many were written. owners[0] is what route(keyHash) returns
+    int route(long keyHash, InetSocketAddress[] owners);
+
+    // members the router currently routes to
+    int size();
+
+    // 64 bit FNV-1a over the chars, then mixed, without copying the key
+    static long hash(CharSequence key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long hash(byte[] key, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (key[i] & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // the SplitMix64 finalizer, spreads every input bit over the whole word
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
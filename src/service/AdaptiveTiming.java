@@ -0,0 +1,87 @@
+package service;
+
+import config.Config;
+import timer.Clock;
+
+import java.time.Duration;
+
+// adapts gossip to what the cluster is doing, see NodeManager.enableAdaptiveTiming
+// activity is 1 right after a membership change (a member joined, was suspected, failed, came
+// back or was removed) and halves every HALF_LIFE_ROUNDS configured intervals after that. Rounds
+// run up to twice as often and reach up to log10(n) more peers while the cluster is active, so
+// news spreads before the next change. A quiet cluster drifts back to the configured interval
+// and fanout, and with probing on to half the configured rate: gossip then only carries
+// heartbeats and updates, the probes find failures on their own schedule.
+// Timeouts are taken as configured for clusters up to REFERENCE_SIZE members and grow with
+// log10(n) beyond that, the number of rounds it takes a heartbeat or an update to reach everyone
+class AdaptiveTiming {
+    private static final int HALF_LIFE_ROUNDS = 10;
+    // intervals relative to the configured one, right after a change and when quiet (probing)
+    private static final double ACTIVE_INTERVAL = 0.5;
+    private static final double QUIET_INTERVAL = 2;
+    private static final int REFERENCE_SIZE = 10;
+    // timeouts are only redone when the scale moved this much, it touches every member
+    private static final double RESCALE_STEP = 0.1;
+
+    private final Config config;
+    private final Clock clock;
+    private final long halfLifeNanos;
+    private volatile boolean backOff = false;
+    // when the membership last changed, Long.MIN_VALUE for never
+    private volatile long changedAtNanos = Long.MIN_VALUE;
+    private double timeoutScale = 1;
+
+    AdaptiveTiming(Config config, Clock clock) {
+        this.config = config;
+        this.clock = clock;
+        this.halfLifeNanos = HALF_LIFE_ROUNDS * config.updateFrequency.toNanos();
+    }
+
+    // whether a quiet cluster may gossip less often than configured
+    void setBackOff(boolean backOff) {
+        this.backOff = backOff;
+    }
+
+    void onMembershipChange() {
+        changedAtNanos = clock.nanoTime();
+    }
+
+    // 1 right after a change, towards 0 as the cluster stays quiet
+    double activity() {
+        long changedAt = changedAtNanos;
+        if (changedAt == Long.MIN_VALUE) {
+            return 0;
+        }
+        return Math.pow(0.5, (double) (clock.nanoTime() - changedAt) / halfLifeNanos);
+    }
+
+    long intervalNanos() {
+        double quiet = backOff ? QUIET_INTERVAL : 1;
+        double factor = quiet + (ACTIVE_INTERVAL - quiet) * activity();
+        return (long) (config.updateFrequency.toNanos() * factor);
+    }
+
+    // the peers to gossip with this round, out of peers other members
+    int fanout(int peers) {
+        int extra = (int) Math.round(activity() * Math.ceil(Math.log10(peers + 1)));
+        return Math.min(config.peersToUpdatePerInterval + extra, Math.max(peers, 1));
+    }
+
+    // the configured timeouts scaled to the cluster size, or null if the ones in use still fit
+    // only called from the rounds
+    Config rescale(int clusterSize) {
+        double scale = Math.max(1, Math.log10(clusterSize) / Math.log10(REFERENCE_SIZE));
+        if (Math.abs(scale - timeoutScale) < RESCALE_STEP) {
+            return null;
+        }
+        timeoutScale = scale;
+        return new Config(scale(config.nodeFailureTimeout.toNanos(), scale),
+                scale(config.nodeCleanupTimeout.toNanos(), scale),
+                config.updateFrequency, config.failureDetectionFrequency, config.peersToUpdatePerInterval,
+                config.probeTimeout, config.indirectProbes);
+    }
+
+    private static Duration scale(long nanos, double scale) {
+        return Duration.ofNanos((long) (nanos * scale));
+    }
+}
@@ -0,0 +1,37 @@
+package service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// a bounded pool of equally sized buffers, so encoding a packet does not allocate one
+// an empty pool allocates a fresh buffer and a full pool drops released ones, so callers never wait
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+    private final boolean direct;
+
+    public BufferPool(int bufferSize, int capacity, boolean direct) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
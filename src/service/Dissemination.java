@@ -0,0 +1,175 @@
+package service;
+
+import message.HeartbeatMessage;
+import message.MemberUpdate;
+import message.MessageCodec;
+import node.Node;
+import node.NodeId;
+
+import java.net.InetSocketAddress;
+
+// the membership updates waiting to be piggybacked, infection style (SWIM section 4.1)
+// every update rides along on outgoing packets until it has been sent retransmitMultiplier *
+// ceil(log10(n + 1)) times, so with n members it reaches everybody in O(log n) rounds at the
+// cost of a few bytes per packet. Packets take the least sent updates first, which keeps fresh
+// news moving; a newer update about a member replaces the older one and starts over. LEFT
+// updates go ahead of everything else: a member that signs off wants to be gone at once.
+// Holds at most one update per member and at most MAX_UPDATES in all, dropping the most sent
+// ones when full
+class Dissemination {
+    private static final int MAX_UPDATES = 1024;
+    // updates that fit in one packet stay well below this, the count then takes one varint byte
+    private static final int MAX_PER_PACKET = 127;
+
+    private volatile int retransmitMultiplier;
+    // LEFT first, then sorted by transmits, least sent first, only touched under the lock
+    private Pending[] queue = new Pending[16];
+    private int size = 0;
+    // read without the lock, so a packet does not take it when there is nothing to send
+    private volatile int pendingCount = 0;
+
+    private static class Pending {
+        final long id;
+        final InetSocketAddress address;
+        byte type;
+        long sequenceNumber;
+        long incarnation;
+        // ALIVE only, null if the member has none
+        byte[] zone;
+        int transmits;
+
+        Pending(long id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+    }
+
+    Dissemination(int retransmitMultiplier) {
+        this.retransmitMultiplier = retransmitMultiplier;
+    }
+
+    void setRetransmitMultiplier(int retransmitMultiplier) {
+        if (retransmitMultiplier < 1) {
+            throw new IllegalArgumentException("Need a multiplier of at least 1, got " + retransmitMultiplier);
+        }
+        this.retransmitMultiplier = retransmitMultiplier;
+    }
+
+    // queues an update about the member, replacing whatever we had queued about it
+    void enqueue(byte type, Node member, long incarnation) {
+        // an ALIVE introduces the member, so it says where it runs
+        enqueue(type, member.getId(), member.getSocketAddress(), member.getSequenceNumber(), incarnation,
+                type == MemberUpdate.ALIVE ? member.getZoneBytes() : null);
+    }
+
+    // same for a member we no longer have a Node for, e.g. one that is buried
+    synchronized void enqueue(byte type, long id, InetSocketAddress address, long sequenceNumber, long incarnation,
+                              byte[] zone) {
+        Pending update = null;
+        int index = 0;
+        for (; index < size; index++) {
+            if (queue[index].id == id) {
+                update = queue[index];
+                break;
+            }
+        }
+        if (update == null) {
+            if (size == MAX_UPDATES) {
+                // the most sent one, it has had its chance
+                size--;
+            } else if (size == queue.length) {
+                Pending[] grown = new Pending[queue.length * 2];
+                System.arraycopy(queue, 0, grown, 0, size);
+                queue = grown;
+            }
+            update = new Pending(id, address);
+            index = size++;
+        }
+        update.type = type;
+        update.sequenceNumber = sequenceNumber;
+        update.incarnation = incarnation;
+        update.zone = zone;
+        update.transmits = 0;
+        // never sent: to the front, behind the LEFT updates unless it is one
+        int front = 0;
+        if (type != MemberUpdate.LEFT) {
+            while (front < index && queue[front].type == MemberUpdate.LEFT) {
+                front++;
+            }
+        }
+        System.arraycopy(queue, front, queue, front + 1, index - front);
+        queue[front] = update;
+        pendingCount = size;
+    }
+
+    // adds the least sent updates that fit in budget bytes and the given wire version to the
+    // message and counts them as sent, returns how many were added
+    int piggyback(HeartbeatMessage message, int budget, int clusterSize, int version) {
+        if (pendingCount == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            int limit = retransmitMultiplier * (int) Math.ceil(Math.log10(clusterSize + 1));
+            int added = 0;
+            for (int i = 0; i < size && added < MAX_PER_PACKET; i++) {
+                Pending update = queue[i];
+                if (version < MemberUpdate.minVersion(update.type)) {
+                    continue;
+                }
+                int bytes = MessageCodec.updateSize(NodeId.isIpv4(update.id) ? 4 : 16,
+                        update.address.getPort(), update.sequenceNumber, update.incarnation,
+                        update.zone == null ? 0 : update.zone.length);
+                if (bytes > budget) {
+                    // a smaller one further on may still fit
+                    continue;
+                }
+                message.addUpdate().set(update.type, update.id, update.address, update.sequenceNumber,
+                        update.incarnation, update.zone);
+                update.transmits++;
+                budget -= bytes;
+                added++;
+            }
+            if (added > 0) {
+                settle(limit);
+            }
+            return added;
+        }
+    }
+
+    // drops the updates that were sent often enough and restores the order after the increments
+    private void settle(int limit) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (queue[i].transmits < limit) {
+                queue[kept++] = queue[i];
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            queue[i] = null;
+        }
+        size = kept;
+        // nearly sorted, only the sent ones moved up by one
+        for (int i = 1; i < size; i++) {
+            Pending update = queue[i];
+            int j = i - 1;
+            while (j >= 0 && goesAfter(queue[j], update)) {
+                queue[j + 1] = queue[j];
+                j--;
+            }
+            queue[j + 1] = update;
+        }
+        pendingCount = size;
+    }
+
+    private static boolean goesAfter(Pending a, Pending b) {
+        boolean aLeft = a.type == MemberUpdate.LEFT;
+        if (aLeft != (b.type == MemberUpdate.LEFT)) {
+            return !aLeft;
+        }
+        return a.transmits > b.transmits;
+    }
+
+    int size() {
+        return pendingCount;
+    }
+}
@@ -0,0 +1,221 @@
+package service;
+
+import timer.ExecutorScheduler;
+import timer.Scheduler;
+import timer.ThreadMode;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// takes membership changes off the gossip and failure detection threads
+// publishing only puts the event on a bounded lock free queue. A dispatcher thread drains it,
+// after waiting batchWindow so changes that happen close together go out as one batch, optionally
+// coalesces the batch (a member that failed and came back within the window is no change at all)
+// and hands it to the listeners on the listener executor. A slow listener only delays other
+// listeners; once the queue is full new events are dropped and counted, gossip never waits
+//
+// with a listener executor of more than one thread batches may be delivered out of order
+public class EventDispatcher {
+    private final BoundedQueue<MembershipEvent> queue;
+    private final long batchWindowNanos;
+    private final boolean coalesce;
+    private final Executor listenerExecutor;
+    private final Scheduler dispatcher;
+    // whether close() shuts the dispatcher down, only if we created it
+    private final boolean ownsDispatcher;
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    // events taken off the queue, only touched by the dispatcher thread
+    private final List<MembershipEvent> batch = new ArrayList<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile long maxLagNanos = 0;
+    // whether we already complained about the current run of drops
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    // unbatched, uncoalesced, listeners run on the dispatcher thread
+    public EventDispatcher() {
+        this(4096, Duration.ZERO, false, null);
+    }
+
+    // capacity: events that may wait for the listeners before new ones are dropped
+    // batchWindow: how long to collect events before delivering them, zero delivers right away
+    // coalesce: drop changes undone within the same batch (failed then revived, new then removed)
+    // listenerExecutor: where listeners run, null runs them on the dispatcher thread
+    public EventDispatcher(int capacity, Duration batchWindow, boolean coalesce, Executor listenerExecutor) {
+        this(capacity, batchWindow, coalesce, listenerExecutor, ThreadMode.PLATFORM);
+    }
+
+    // same, with the dispatcher thread of the given mode
+    public EventDispatcher(int capacity, Duration batchWindow, boolean coalesce, Executor listenerExecutor,
+                           ThreadMode threadMode) {
+        this(capacity, batchWindow, coalesce, listenerExecutor,
+                new ExecutorScheduler("gossip-events", true, threadMode), true);
+    }
+
+    // drains on the given scheduler instead of a thread of its own, e.g. a simulation's virtual time
+    public EventDispatcher(int capacity, Duration batchWindow, boolean coalesce, Executor listenerExecutor,
+                           Scheduler dispatcher) {
+        this(capacity, batchWindow, coalesce, listenerExecutor, dispatcher, false);
+    }
+
+    private EventDispatcher(int capacity, Duration batchWindow, boolean coalesce, Executor listenerExecutor,
+                            Scheduler dispatcher, boolean ownsDispatcher) {
+        this.queue = new BoundedQueue<>(capacity);
+        this.batchWindowNanos = batchWindow.toNanos();
+        this.coalesce = coalesce;
+        this.dispatcher = dispatcher;
+        this.ownsDispatcher = ownsDispatcher;
+        this.listenerExecutor = listenerExecutor != null ? listenerExecutor : Runnable::run;
+    }
+
+    public void addListener(MembershipListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    // never blocks, returns false if the event was dropped because the listeners fell behind
+    public boolean publish(MembershipEvent.Type type, InetSocketAddress address) {
+        if (closed) {
+            return false;
+        }
+        published.incrementAndGet();
+        if (!queue.offer(new MembershipEvent(type, address, dispatcher.nanoTime()))) {
+            dropped.incrementAndGet();
+            if (warned.compareAndSet(false, true)) {
+                System.out.println("[Membership listeners are falling behind, "
+                        + queue.capacity() + " events pending, dropping new ones]");
+            }
+            return false;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            dispatcher.schedule(this::drain, batchWindowNanos);
+        }
+        return true;
+    }
+
+    private void drain() {
+        if (closed) {
+            return;
+        }
+        // cleared before polling, so an event published from here on schedules the next drain
+        drainScheduled.set(false);
+        batch.clear();
+        MembershipEvent event;
+        while ((event = queue.poll()) != null) {
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        long lag = dispatcher.nanoTime() - batch.get(0).getTimeNanos();
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        List<MembershipEvent> changes = coalesce ? coalesce(batch) : new ArrayList<>(batch);
+        coalesced.addAndGet(batch.size() - changes.size());
+        if (changes.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+        listenerExecutor.execute(() -> deliver(changes));
+    }
+
+    private void deliver(List<MembershipEvent> changes) {
+        for (MembershipListener listener : listeners) {
+            try {
+                listener.onChanges(changes);
+            } catch (RuntimeException e) {
+                // one broken listener must not starve the others
+                e.printStackTrace();
+            }
+        }
+        delivered.addAndGet(changes.size());
+        warned.set(false);
+    }
+
+    // per member, a change followed by its inverse cancels out, and a repeat of the change that
+    // is already in effect is dropped. What is left keeps the original order
+    static List<MembershipEvent> coalesce(List<MembershipEvent> events) {
+        MembershipEvent[] kept = events.toArray(new MembershipEvent[0]);
+        // positions of the kept changes of each member, most recent last
+        Map<InetSocketAddress, ArrayDeque<Integer>> byMember = new HashMap<>();
+        for (int i = 0; i < kept.length; i++) {
+            MembershipEvent event = kept[i];
+            ArrayDeque<Integer> history = byMember.computeIfAbsent(event.getAddress(), a -> new ArrayDeque<>());
+            Integer last = history.peekLast();
+            if (last != null && kept[last].getType() == event.getType()) {
+                kept[i] = null;
+            } else if (last != null && kept[last].getType().inverse() == event.getType()) {
+                kept[history.pollLast()] = null;
+                kept[i] = null;
+            } else {
+                history.addLast(i);
+            }
+        }
+        List<MembershipEvent> changes = new ArrayList<>(kept.length);
+        for (MembershipEvent event : kept) {
+            if (event != null) {
+                changes.add(event);
+            }
+        }
+        return changes;
+    }
+
+    // stops dispatching, events still queued are dropped
+    public void close() {
+        closed = true;
+        if (ownsDispatcher) {
+            dispatcher.shutdown();
+        }
+    }
+
+    public long getPublishedEvents() {
+        return published.get();
+    }
+
+    public long getDeliveredEvents() {
+        return delivered.get();
+    }
+
+    // events lost because the queue was full, a sign the listeners cannot keep up
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    // events that cancelled out before delivery
+    public long getCoalescedEvents() {
+        return coalesced.get();
+    }
+
+    public long getDeliveredBatches() {
+        return batches.get();
+    }
+
+    public int getPendingEvents() {
+        return queue.size();
+    }
+
+    // longest time an event waited in the queue, including the batch window
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+}
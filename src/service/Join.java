@@ -0,0 +1,62 @@
+package service;
+
+import timer.Scheduler;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the first thing a node with seeds does: it says hello to all of them at once, with a heartbeat
+// that also announces it, and pulls the full membership from the first one that answers. Seeds
+// that speak digests answer a heartbeat right away (see NodeManager.handleMessage), so with state
+// transfer on a new node has the whole cluster one round trip plus one TCP exchange after start.
+// Nobody answering within the timeout gets everybody asked again, with the timeout doubled,
+// up to ATTEMPTS times; after that the node says so and keeps gossiping with whoever finds it
+class Join {
+    private static final int ATTEMPTS = 5;
+
+    private final NodeManager node;
+    private final Scheduler scheduler;
+    private final List<InetSocketAddress> seeds;
+    private final Set<InetSocketAddress> seedSet;
+    private final long firstTimeoutNanos;
+    private final AtomicBoolean done = new AtomicBoolean();
+    // only touched on the scheduler
+    private int attempt = 0;
+
+    Join(NodeManager node, Scheduler scheduler, List<InetSocketAddress> seeds, long firstTimeoutNanos) {
+        this.node = node;
+        this.scheduler = scheduler;
+        this.seeds = seeds;
+        this.seedSet = new HashSet<>(seeds);
+        this.firstTimeoutNanos = Math.max(1, firstTimeoutNanos);
+    }
+
+    void start() {
+        scheduler.schedule(this::attempt, 0);
+    }
+
+    private void attempt() {
+        if (done.get()) {
+            return;
+        }
+        if (attempt == ATTEMPTS) {
+            done.set(true);
+            System.out.println("Could not reach any of the seeds " + seeds + " after " + ATTEMPTS
+                    + " attempts, waiting to be found");
+            return;
+        }
+        node.greet(seeds);
+        scheduler.schedule(this::attempt, firstTimeoutNanos << attempt);
+        attempt++;
+    }
+
+    // called by the receive loops for every valid packet, cheap once joined
+    void heardFrom(InetSocketAddress sender) {
+        if (!done.get() && seedSet.contains(sender) && done.compareAndSet(false, true)) {
+            node.onJoined(sender);
+        }
+    }
+}
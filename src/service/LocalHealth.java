@@ -0,0 +1,103 @@
+package service;
+
+import journal.JournalEvent;
+import journal.JournalLevel;
+import metrics.GossipMetrics;
+import node.MemberTable;
+
+// how far we trust our own sense of time, Lifeguard's local health multiplier (Dadgar et al.)
+// a node that was paused (a long GC, a starved receive loop, a suspended VM) comes back to timers
+// that fired late and packets that queued up, and would blame the silence on its peers. The score
+// goes up for every sign that we are the slow side:
+// - a timer that ran more than half a period late, by one per period it was late
+// - a packet whose handling took longer than slowHandlingNanos, from the decoded message to the
+//   published view. That is a slow handler, not how long the packet waited in the socket buffer,
+//   which the transports cannot see; a loop stalled that long shows up as late timers instead
+// - a probe that nobody acked, directly or through others
+// - a suspicion of ourselves we had to refute
+// and down by one for an acked probe, or a detection tick with none of the above since the last.
+// While it is above 0 our own suspicion and heartbeat timeouts and our probe period and timeout
+// are stretched by 1 + score, so a degraded node waits longer before it accuses anybody
+class LocalHealth {
+    static final int MAX_SCORE = 8;
+
+    private final MemberTable members;
+    private final GossipMetrics metrics;
+    private final long selfId;
+    private final long slowHandlingNanos;
+
+    private volatile int score = 0;
+    // whether anything raised the score since the last detection tick, guarded by this
+    private boolean troubled = false;
+
+    LocalHealth(MemberTable members, GossipMetrics metrics, long selfId, long slowHandlingNanos) {
+        this.members = members;
+        this.metrics = metrics;
+        this.selfId = selfId;
+        this.slowHandlingNanos = slowHandlingNanos;
+    }
+
+    int score() {
+        return score;
+    }
+
+    // 1 + score, what our timeouts are multiplied by
+    int multiplier() {
+        return 1 + score;
+    }
+
+    // the given timeout or period, as long as we should wait right now
+    long stretch(long nanos) {
+        return nanos * multiplier();
+    }
+
+    // a timer meant to run every periodNanos ran latenessNanos after it was due
+    void onTimer(long latenessNanos, long periodNanos) {
+        if (latenessNanos > periodNanos / 2) {
+            adjust((int) Math.min(MAX_SCORE, Math.max(1, latenessNanos / periodNanos)));
+        }
+    }
+
+    // the failure detection task, which also lets a healthy node recover
+    synchronized void onDetectionTick(long latenessNanos, long periodNanos) {
+        onTimer(latenessNanos, periodNanos);
+        if (!troubled) {
+            adjust(-1);
+        }
+        troubled = false;
+    }
+
+    // handlingNanos from taking the decoded packet in to having published what it changed
+    void onPacketHandled(long handlingNanos) {
+        if (handlingNanos > slowHandlingNanos) {
+            adjust(1);
+        }
+    }
+
+    void onProbeAcked() {
+        adjust(-1);
+    }
+
+    void onProbeMissed() {
+        adjust(1);
+    }
+
+    void onRefuted() {
+        adjust(1);
+    }
+
+    private synchronized void adjust(int change) {
+        if (change > 0) {
+            troubled = true;
+        }
+        int previous = score;
+        int next = Math.max(0, Math.min(MAX_SCORE, previous + change));
+        if (next == previous) {
+            return;
+        }
+        score = next;
+        metrics.localHealth(next);
+        members.getJournal().record(JournalLevel.INFO, JournalEvent.LOCAL_HEALTH_CHANGED, selfId, next,
+                next - previous);
+    }
+}
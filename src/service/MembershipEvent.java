@@ -0,0 +1,57 @@
+package service;
+
+import java.net.InetSocketAddress;
+
+// one change to the membership list, as handed to MembershipListeners
+public final class MembershipEvent {
+    public enum Type {
+        NEW,
+        FAILED,
+        REVIVED,
+        REMOVED;
+
+        // the change that undoes this one, null if none does
+        Type inverse() {
+            switch (this) {
+                case NEW:
+                    return REMOVED;
+                case REMOVED:
+                    return NEW;
+                case FAILED:
+                    return REVIVED;
+                case REVIVED:
+                    return FAILED;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final Type type;
+    private final InetSocketAddress address;
+    // System.nanoTime() when the change was published
+    private final long timeNanos;
+
+    public MembershipEvent(Type type, InetSocketAddress address, long timeNanos) {
+        this.type = type;
+        this.address = address;
+        this.timeNanos = timeNanos;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + address;
+    }
+}
@@ -0,0 +1,8 @@
+package service;
+
+import java.util.List;
+
+// bulk alternative to Updater: gets every change of one dispatch at once, in the order they happened
+public interface MembershipListener {
+    void onChanges(List<MembershipEvent> changes);
+}
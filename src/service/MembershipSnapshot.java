@@ -0,0 +1,374 @@
+package service;
+
+import journal.JournalEvent;
+import journal.JournalLevel;
+import message.MemberUpdate;
+import node.MemberState;
+import node.Node;
+import node.NodeId;
+import timer.ExecutorScheduler;
+import timer.Scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// our member table on disk, so a restarted node knows the cluster before it hears from anybody
+// an append log in a memory-mapped file: every membership change appends one fixed size record,
+// a plain memory write. It survives the process dying right after, the page is the kernel's by
+// then, but not the machine going down: only what was synced is on the disk. The worker syncs
+// the log every sync interval (or every record is synced as it is appended, for a zero interval),
+// so a crash of the machine loses at most the changes of the last interval. Every compaction
+// interval (and whenever the log is full) the log is compacted: the current members go to a
+// fresh file, which is synced and then atomically moved over the old one. The gossip threads
+// that record only share a lock with the worker to swap the mapping, never while it writes or
+// syncs; what they record meanwhile is appended to the new log as well. A record only counts if
+// its checksum matches, so a record torn by a crash ends the log instead of corrupting it
+//
+// failures go to the node's journal as SNAPSHOT_IGNORED and SNAPSHOT_FAILED
+//
+// file format, big endian:
+//   header  magic "GMSN" 4 bytes, format version 1 byte, record size 1 byte, 2 reserved bytes
+//   records RECORD_SIZE bytes each, up to the first one whose kind is 0 or whose checksum is off
+//
+// record:
+//   crc          4 bytes  CRC32 of the rest of the record
+//   kind         1 byte   MemberState ordinal + 1, or REMOVED
+//   address      1 byte   length (4 or 16), then 16 bytes, the unused ones zero
+//   port         2 bytes
+//   sequence     8 bytes
+//   incarnation  8 bytes
+public class MembershipSnapshot {
+    public static final int MAGIC = 0x474D534E;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 40;
+
+    private static final byte REMOVED = (byte) (MemberState.values().length + 1);
+    // records the log has room for at least, compaction grows it to a few times the members
+    private static final int MIN_CAPACITY = 1024;
+
+    private final NodeManager node;
+    private final Path file;
+    // compacts and syncs, so the gossip threads never wait for the disk
+    private final Scheduler worker;
+    // held for a whole compaction, so the worker and close() never compact at the same time
+    private final Object compaction = new Object();
+    private final CRC32 compactionCrc = new CRC32();
+
+    // guarded by this
+    private MappedByteBuffer log;
+    private int capacity;
+    private int position;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private boolean closed = false;
+    // appended since the last sync
+    private boolean unsynced = false;
+    // sync every record as it is appended instead of every interval
+    private boolean syncEveryRecord = false;
+    // a compaction is on its way for the full log
+    private boolean full = false;
+    // recorded while a compaction runs, null otherwise. Appended to the compacted log with the
+    // members' values at that point, which are at least as new as the ones compacted
+    private List<Node> pending;
+    private final BitSet pendingRemoved = new BitSet();
+
+    // what the file held when we opened it, the last record of each member
+    private final List<MemberUpdate> restored = new ArrayList<>();
+    // the size of a file we did not recognize, journaled once we start and the journal is set
+    private long ignoredBytes = 0;
+
+    MembershipSnapshot(NodeManager node, Path file) throws IOException {
+        this.node = node;
+        this.file = file;
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        worker = new ExecutorScheduler("gossip-snapshot-" + file.getFileName(), true);
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        capacity = Math.max(MIN_CAPACITY, (int) Math.min(Integer.MAX_VALUE, (size - HEADER_SIZE) / RECORD_SIZE));
+        log = map(capacity);
+        if (hasHeader()) {
+            read();
+        } else {
+            ignoredBytes = size;
+            writeHeader(log);
+            position = 0;
+        }
+    }
+
+    private MappedByteBuffer map(int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+    }
+
+    private boolean hasHeader() {
+        return log.getInt(0) == MAGIC && log.get(4) == VERSION && log.get(5) == RECORD_SIZE;
+    }
+
+    private static void writeHeader(ByteBuffer into) {
+        into.putInt(0, MAGIC);
+        into.put(4, (byte) VERSION);
+        into.put(5, (byte) RECORD_SIZE);
+        into.putShort(6, (short) 0);
+    }
+
+    // replays the log up to its first empty or broken record, where the next append goes
+    private void read() {
+        Map<Long, MemberUpdate> latest = new LinkedHashMap<>();
+        byte[] address = new byte[16];
+        for (position = 0; position < capacity; position++) {
+            int offset = HEADER_SIZE + position * RECORD_SIZE;
+            byte kind = log.get(offset + 4);
+            int length = log.get(offset + 5);
+            if (kind < 1 || kind > REMOVED || (length != 4 && length != 16) || !checksumMatches(offset)) {
+                break;
+            }
+            for (int i = 0; i < length; i++) {
+                address[i] = log.get(offset + 6 + i);
+            }
+            InetSocketAddress member;
+            try {
+                member = new InetSocketAddress(InetAddress.getByAddress(Arrays.copyOf(address, length)),
+                        log.getShort(offset + 22) & 0xFFFF);
+            } catch (UnknownHostException e) {
+                // cannot happen for 4 or 16 bytes
+                break;
+            }
+            long id = NodeId.of(member);
+            if (kind == REMOVED) {
+                latest.remove(id);
+                continue;
+            }
+            MemberUpdate update = latest.computeIfAbsent(id, k -> new MemberUpdate());
+            update.set(typeOf(kind), id, member, log.getLong(offset + 24), log.getLong(offset + 32));
+        }
+        restored.addAll(latest.values());
+    }
+
+    private boolean checksumMatches(int offset) {
+        crc.reset();
+        for (int i = 4; i < RECORD_SIZE; i++) {
+            crc.update(log.get(offset + i));
+        }
+        return (int) crc.getValue() == log.getInt(offset);
+    }
+
+    private static byte typeOf(byte kind) {
+        switch (MemberState.values()[kind - 1]) {
+            case SUSPECT:
+                return MemberUpdate.SUSPECT;
+            case FAILED:
+                return MemberUpdate.FAILED;
+            default:
+                return MemberUpdate.ALIVE;
+        }
+    }
+
+    // the members in the file when it was opened, ourselves included; their type is the state
+    // they were last recorded in
+    List<MemberUpdate> restored() {
+        return restored;
+    }
+
+    // compacts and syncs every interval from now on, a zero sync interval syncs every record instead
+    void start(long compactionIntervalNanos, long syncIntervalNanos) {
+        if (ignoredBytes > 0) {
+            journal(JournalEvent.SNAPSHOT_IGNORED, ignoredBytes, 0);
+        }
+        synchronized (this) {
+            syncEveryRecord = syncIntervalNanos == 0;
+        }
+        worker.scheduleAtFixedRate(this::compactQuietly, compactionIntervalNanos, compactionIntervalNanos);
+        if (syncIntervalNanos > 0) {
+            worker.scheduleAtFixedRate(this::syncQuietly, syncIntervalNanos, syncIntervalNanos);
+        }
+    }
+
+    private void journal(byte event, long value, int extra) {
+        node.getJournal().record(JournalLevel.INFO, event, node.getSelf().getId(), value, extra);
+    }
+
+    // appends the member's current state, or that it was removed
+    // a full log drops the record and gets compacted, which writes the current state anyway
+    synchronized void record(Node member, boolean removed) {
+        if (closed) {
+            return;
+        }
+        if (pending != null) {
+            if (removed) {
+                pendingRemoved.set(pending.size());
+            }
+            pending.add(member);
+        }
+        append(member, removed);
+    }
+
+    private void append(Node member, boolean removed) {
+        if (position == capacity) {
+            if (!full) {
+                full = true;
+                worker.schedule(this::compactQuietly, 0);
+            }
+            return;
+        }
+        record.clear();
+        encode(member, removed, record, crc);
+        record.flip();
+        log.position(HEADER_SIZE + position * RECORD_SIZE);
+        log.put(record);
+        position++;
+        if (!syncEveryRecord) {
+            unsynced = true;
+        } else if (!sync(log)) {
+            journal(JournalEvent.SNAPSHOT_FAILED, position, JournalEvent.SNAPSHOT_SYNC);
+        }
+    }
+
+    // outside the lock, the gossip threads keep appending while the OS writes the pages out. A
+    // log a compaction replaced meanwhile is synced for nothing, the new file was synced whole
+    private void syncQuietly() {
+        MappedByteBuffer appended;
+        int records;
+        synchronized (this) {
+            if (closed || !unsynced) {
+                return;
+            }
+            unsynced = false;
+            appended = log;
+            records = position;
+        }
+        if (!sync(appended)) {
+            synchronized (this) {
+                unsynced = true;
+            }
+            journal(JournalEvent.SNAPSHOT_FAILED, records, JournalEvent.SNAPSHOT_SYNC);
+        }
+    }
+
+    private static boolean sync(MappedByteBuffer mapped) {
+        try {
+            mapped.force();
+            return true;
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    private static void encode(Node member, boolean removed, ByteBuffer into, CRC32 crc) {
+        byte[] address = member.getInetAddress().getAddress();
+        int start = into.position();
+        into.putInt(0);
+        into.put(removed ? REMOVED : (byte) (member.getState().ordinal() + 1));
+        into.put((byte) address.length);
+        into.put(address);
+        for (int i = address.length; i < 16; i++) {
+            into.put((byte) 0);
+        }
+        into.putShort((short) member.getPort());
+        into.putLong(member.getSequenceNumber());
+        into.putLong(member.getIncarnation());
+        crc.reset();
+        crc.update(into.array(), into.arrayOffset() + start + 4, RECORD_SIZE - 4);
+        into.putInt(start, (int) crc.getValue());
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | UncheckedIOException e) {
+            journal(JournalEvent.SNAPSHOT_FAILED, records(), JournalEvent.SNAPSHOT_COMPACTION);
+        }
+    }
+
+    // rewrites the file with one record per current member, room for as many again to append
+    void compact() throws IOException {
+        synchronized (compaction) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                // from here on records are kept for the new log too, the members are read after
+                pending = new ArrayList<>();
+                pendingRemoved.clear();
+            }
+            MappedByteBuffer compacted;
+            Node[] members;
+            int compactedCapacity;
+            try {
+                members = node.memberArray();
+                ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE + members.length * RECORD_SIZE);
+                writeHeader(contents);
+                contents.position(HEADER_SIZE);
+                for (Node member : members) {
+                    encode(member, false, contents, compactionCrc);
+                }
+                contents.flip();
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (contents.hasRemaining()) {
+                        channel.write(contents);
+                    }
+                    channel.force(true);
+                }
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                compactedCapacity = Math.max(MIN_CAPACITY, Math.max(capacity(), members.length * 4));
+                compacted = map(compactedCapacity);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                log = compacted;
+                capacity = compactedCapacity;
+                position = members.length;
+                full = false;
+                List<Node> recorded = pending;
+                pending = null;
+                for (int i = 0; i < recorded.size(); i++) {
+                    append(recorded.get(i), pendingRemoved.get(i));
+                }
+            }
+        }
+    }
+
+    private synchronized int capacity() {
+        return capacity;
+    }
+
+    private synchronized int records() {
+        return position;
+    }
+
+    // a last compaction, synced like every one, then no more records
+    void close() {
+        compactQuietly();
+        synchronized (this) {
+            closed = true;
+        }
+        worker.shutdown();
+    }
+}
@@ -0,0 +1,205 @@
+package service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// non blocking transport: one or more DatagramChannels, each with its own selector loop thread
+// and its own direct receive buffer. With more than one channel all of them bind the same port
+// with SO_REUSEPORT and the kernel spreads incoming packets across them (and so across cores).
+// The loops stay on platform threads: a virtual thread blocked in select() pins its carrier, so
+// ThreadMode.VIRTUAL nodes use the blocking Socket instead
+public class NioTransport implements Transport {
+    private final InetSocketAddress bindAddress;
+    private final int requestedChannels;
+    private final int bufferSize;
+
+    private DatagramChannel[] channels;
+    private Selector[] selectors;
+    private final AtomicInteger nextSendChannel = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public NioTransport(int portToListen, int channels, int bufferSize) {
+        this(new InetSocketAddress(portToListen), channels, bufferSize);
+    }
+
+    public NioTransport(InetSocketAddress bindAddress, int channels, int bufferSize) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("Need at least one channel, got " + channels);
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Need a receive buffer of at least one byte, got " + bufferSize);
+        }
+        this.bindAddress = bindAddress;
+        this.requestedChannels = channels;
+        this.bufferSize = bufferSize;
+        open();
+    }
+
+    // binds eagerly, so a port that is already taken fails at construction like Socket does
+    private void open() {
+        int count = requestedChannels;
+        if (count > 1 && !supportsReusePort()) {
+            System.out.println("SO_REUSEPORT is not supported here, using one channel");
+            count = 1;
+        }
+        channels = new DatagramChannel[count];
+        selectors = new Selector[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels[i] = channel;
+                if (count > 1) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.configureBlocking(false);
+                channel.bind(bindAddress);
+                selectors[i] = Selector.open();
+                channel.register(selectors[i], SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not bind " + bindAddress);
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // SO_RCVBUF of every channel: how many bytes of datagrams the kernel queues for us while the
+    // loops are busy, before it starts dropping. The default is often too small for bursts from
+    // a large cluster. The kernel may round or cap it, see getSocketReceiveBufferSize
+    @Override
+    public void setSocketReceiveBufferSize(int bytes) {
+        for (DatagramChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
+            } catch (IOException e) {
+                System.out.println("Could not set the receive buffer of " + bindAddress);
+            }
+        }
+    }
+
+    // what the kernel actually granted, 0 if the channels are not open
+    @Override
+    public int getSocketReceiveBufferSize() {
+        try {
+            return channels.length > 0 && channels[0] != null
+                    ? channels[0].getOption(StandardSocketOptions.SO_RCVBUF) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    @Override
+    public void start(PacketHandler handler) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == null) {
+                continue;
+            }
+            Selector selector = selectors[i];
+            String name = "gossip-nio-" + bindAddress.getPort() + "-" + i;
+            Thread loop = new Thread(() -> eventLoop(selector, handler), name);
+            loop.setDaemon(true);
+            loop.start();
+        }
+    }
+
+    private void eventLoop(Selector selector, PacketHandler handler) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        while (!closed) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        drain((DatagramChannel) key.channel(), buffer, handler);
+                    }
+                }
+            } catch (ClosedSelectorException | ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // reads until the channel has nothing left, one selector wakeup can cover many packets
+    private void drain(DatagramChannel channel, ByteBuffer buffer, PacketHandler handler)
+            throws IOException {
+        while (true) {
+            buffer.clear();
+            InetSocketAddress sender = (InetSocketAddress) channel.receive(buffer);
+            if (sender == null) {
+                return;
+            }
+            buffer.flip();
+            try {
+                handler.onPacket(sender, buffer);
+            } catch (RuntimeException e) {
+                // one bad packet must not take the loop down
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void send(InetSocketAddress target, ByteBuffer packet) {
+        if (closed) {
+            return;
+        }
+        // channels are thread safe, spreading sends just avoids contending on one of them
+        int index = (nextSendChannel.getAndIncrement() & Integer.MAX_VALUE) % channels.length;
+        DatagramChannel channel = channels[index];
+        try {
+            // returns 0 if the socket send buffer is full: the packet is dropped, as UDP would
+            channel.send(packet, target);
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("[Could not send packet to " + target + "]");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < channels.length; i++) {
+            try {
+                if (selectors[i] != null) {
+                    selectors[i].close();
+                }
+                if (channels[i] != null) {
+                    channels[i].close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
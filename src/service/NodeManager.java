@@ -1,16 +1,49 @@
 package service;
 
 import config.Config;
+import journal.EventJournal;
+import journal.JournalEvent;
+import journal.JournalLevel;
+import message.HeartbeatMessage;
+import message.MemberEntry;
+import message.MemberUpdate;
+import message.MessageCodec;
+import message.MessageType;
+import message.VersionNegotiator;
+import metrics.GossipMetrics;
+import metrics.MetricsSnapshot;
+import node.FailureDetector;
+import node.MemberTable;
+import node.MembershipView;
 import node.Node;
+import node.NodeId;
+import node.TimeoutFailureDetector;
+import timer.ExecutorScheduler;
+import timer.Scheduler;
+import timer.ThreadMode;
+import timer.TimingWheel;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 // this is the logic where the protocol is implemented
 // the NodeManager is where nodes will be initialized, and where membership lists will be tracked
@@ -18,25 +51,176 @@ import java.util.concurrent.ScheduledExecutorService;
 public class NodeManager implements Serializable {
     public final InetSocketAddress inetSocketAddress;
     private Node self = null;
-    private Socket socketService;
-    // String -> node name
-    // Node -> the node itself
-    private ConcurrentHashMap<String, Node> members = new ConcurrentHashMap<>();
-    private boolean stopped = false;
-    private Config config = null;
+    private Transport transport;
+    // highest wire version each peer understands
+    private final VersionNegotiator versions = new VersionNegotiator();
+    // direct buffers to encode outgoing packets into, shared by the sender and the receive loops
+    private final BufferPool sendBuffers = new BufferPool(MessageCodec.MAX_PACKET_SIZE, 16, true);
+    // every member including ourselves, interned to slots and looked up by NodeId
+    private final MemberTable members;
+    private volatile boolean stopped = false;
+    private volatile boolean heartbeatsStopped = false;
+    // set by leave(), we no longer refute anything about ourselves
+    private volatile boolean leaving = false;
+    // replaced by one with scaled timeouts as the cluster grows, with adaptive timing
+    private volatile Config config = null;
     private Updater onNewMember = null;
     private Updater onFailedMember = null;
     private Updater onRemovedMember = null;
     private Updater onRevivedMember = null;
-    private ScheduledExecutorService heartbeatExecutor = Executors.newScheduledThreadPool(1);
+    // membership changes go through here, so listeners never run on gossip or detection threads
+    // null until set or first needed, see events()
+    private volatile EventDispatcher events;
+    // the thread mode of the default dispatcher
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    // creates the failure detector of every member, null keeps Node's timeout detector
+    private Supplier<FailureDetector> failureDetectorFactory = null;
+    // runs rounds, probes and failure detection, and is the clock all of them read
+    private final Scheduler scheduler;
+    private final Random random;
+    // how late a round may start at random, so nodes started together do not send in lockstep
+    private long roundJitterNanos;
+    // tracks membership changes, and with adaptive timing on sets the pace of the rounds
+    private final AdaptiveTiming timing;
+    private volatile boolean adaptiveTiming = false;
+    // traffic, merge and detection counters, see snapshot()
+    private final GossipMetrics metrics;
+    // how much we trust our own timers, stretches our timeouts while we are the slow side
+    private final LocalHealth health;
+    // where the metrics are registered over JMX while we run, null if they are not
+    private ObjectName metricsName = null;
+    // reused for every round, only touched by the sender thread
+    private final HeartbeatMessage outgoingHeartbeat = new HeartbeatMessage();
+    private final HeartbeatMessage outgoingDigest = new HeartbeatMessage();
+    // a transport may run several receive loops, each decodes and builds replies in its own messages
+    private final ThreadLocal<HeartbeatMessage> receivedMessage =
+            ThreadLocal.withInitial(HeartbeatMessage::new);
+    private final ThreadLocal<HeartbeatMessage> replyMessage =
+            ThreadLocal.withInitial(HeartbeatMessage::new);
+
+    private PeerSelector peerSelector;
+    // once we have a zone: how likely each gossip target is to be in another zone
+    private double crossZoneProbability = 0.05;
+    // SWIM probing has its own round robin, independent of the gossip targets
+    private PeerSelector probeSelector;
+    private SwimProber prober;
+    // whether this node probes members itself; it answers other nodes' probes either way
+    private volatile boolean probing = false;
+    // targets of the current round, reused
+    private final List<Node> roundTargets = new ArrayList<>();
+    // the members given to addSeed, we join through the first of them that answers
+    private final List<InetSocketAddress> seeds = new ArrayList<>();
+    // null without seeds, set before the receive loops start
+    private Join join = null;
+    // membership updates waiting to ride along on outgoing packets
+    private final Dissemination dissemination = new Dissemination(4);
+    // members we removed, by id: {sequence, incarnation} they had. Entries and updates that are
+    // not newer are echoes of the dead member and must not bring it back. Kept for as long as
+    // other members may take to remove it too
+    private final ConcurrentHashMap<Long, long[]> tombstones = new ConcurrentHashMap<>();
+    // membership events held back until the view that shows them is published, see publishView
+    private final List<MembershipEvent> pendingEvents = new ArrayList<>();
+    // full state exchanges over TCP, null unless enabled
+    private StateTransfer stateTransfer = null;
+    private long stateTransferIntervalNanos = 0;
+    // our member table on disk, null unless enabled
+    private MembershipSnapshot snapshot = null;
+    private long snapshotCompactionNanos = 0;
+    private long snapshotSyncNanos = 0;
+
+    // every member except us sits in the wheel under its next deadline: when its detector gives
+    // up on it (or, with probing, when its suspicion runs out) while alive, and when it gets
+    // cleaned up once failed. Heartbeats move the deadline, the detection thread only looks
+    // at the members whose deadline passed
+    private static final long DEADLINE_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final TimingWheel<Node> deadlines;
+    // members whose deadline passed this tick, only touched by the failure detection task
+    private final List<Node> expired = new ArrayList<>();
+    // when the next failure detection tick is due, only touched by the failure detection task
+    private long detectionDueNanos;
+
+    // how many (id, sequence) pairs go into one digest, keeps a digest well inside one datagram
+    private static final int DIGEST_PAGE_SIZE = 64;
+    // where the next legacy full list heartbeat starts, only touched by the rounds
+    private int legacyCursor = 0;
+    // the members the legacy heartbeat is filled from, reused, only touched by the rounds
+    private Node[] legacyMembers = new Node[16];
+    // first id of the next digest page, the digest rotates through the id space one page per round
+    private long digestCursor = NodeId.MIN;
+    // one page plus one, to tell whether the page reached the end; only used by the sender thread
+    private final long[] pageIds = new long[DIGEST_PAGE_SIZE + 1];
+    private final long[] pageSequences = new long[DIGEST_PAGE_SIZE + 1];
+    // our (id, sequence) pairs in the range of a digest we answer, per receive loop
+    private final ThreadLocal<RangeBuffer> rangeBuffer = ThreadLocal.withInitial(RangeBuffer::new);
+
+    private static class RangeBuffer {
+        long[] ids = new long[DIGEST_PAGE_SIZE];
+        long[] sequences = new long[DIGEST_PAGE_SIZE];
+
+        void ensure(int capacity) {
+            if (ids.length < capacity) {
+                ids = new long[capacity];
+                sequences = new long[capacity];
+            }
+        }
+    }
 
     // constructor for when we initially add a node
     public NodeManager(InetSocketAddress inetSocketAddress, Config config) {
+        // one byte more than we ever send, so a datagram that fills the buffer is known to be truncated
+        this(inetSocketAddress, config, new NioTransport(inetSocketAddress.getPort(), 1,
+                MessageCodec.MAX_PACKET_SIZE + 1));
+    }
+
+    // same, with every thread the node starts of the given mode: with ThreadMode.VIRTUAL rounds,
+    // detection, the receive loop and event delivery all run on virtual threads, so a test or
+    // a sidecar can host hundreds of nodes in one JVM. Virtual threads are daemons, such a node
+    // does not keep the JVM alive by itself
+    public NodeManager(InetSocketAddress inetSocketAddress, Config config, ThreadMode threadMode) {
+        this(inetSocketAddress, config, transportFor(inetSocketAddress.getPort(), threadMode),
+                new ExecutorScheduler("gossip-" + inetSocketAddress.getPort(), false, threadMode), new Random());
+        this.threadMode = threadMode;
+    }
+
+    private static Transport transportFor(int port, ThreadMode threadMode) {
+        if (threadMode == ThreadMode.PLATFORM) {
+            return new NioTransport(port, 1, MessageCodec.MAX_PACKET_SIZE + 1);
+        }
+        // throws before the port is bound if the JVM has no virtual threads
+        threadMode.factory("gossip-socket-" + port, true);
+        return new Socket(port, MessageCodec.MAX_PACKET_SIZE + 1, threadMode);
+    }
+
+    // same, but packets go through the given transport instead of a NioTransport on the port
+    public NodeManager(InetSocketAddress inetSocketAddress, Config config, Transport transport) {
+        this(inetSocketAddress, config, transport,
+                new ExecutorScheduler("gossip-" + inetSocketAddress.getPort(), false), new Random());
+    }
+
+    // everything injected: a simulation passes an in memory transport, a virtual time scheduler
+    // and a seeded random, and gets a node that never touches a real thread, socket or clock
+    // (membership events then also go through the scheduler, see setEventDispatcher)
+    public NodeManager(InetSocketAddress inetSocketAddress, Config config, Transport transport,
+                       Scheduler scheduler, Random random) {
         this.inetSocketAddress = inetSocketAddress;
         this.config = config;
-        this.socketService = new Socket(inetSocketAddress.getPort());
-        self = new Node(inetSocketAddress, 0, config);
-        members.putIfAbsent(self.getUniqueID(), self);
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.random = random;
+        roundJitterNanos = config.updateFrequency.toNanos() / 10;
+        timing = new AdaptiveTiming(config, scheduler);
+        members = new MemberTable(16, scheduler);
+        metrics = new GossipMetrics(members);
+        // a packet that takes longer than the probe timeout to handle makes our own acks late
+        health = new LocalHealth(members, metrics, NodeId.of(inetSocketAddress), config.probeTimeout.toNanos());
+        deadlines = new TimingWheel<>(DEADLINE_TICK_NANOS, scheduler.nanoTime());
+        peerSelector = new PeerSelector(members, NodeId.of(inetSocketAddress), random);
+        probeSelector = new PeerSelector(members, NodeId.of(inetSocketAddress), random);
+        prober = new SwimProber(this, members, probeSelector, scheduler, random, health,
+                config.failureDetectionFrequency.toNanos(), config.probeTimeout.toNanos(),
+                config.indirectProbes);
+        self = addMember(inetSocketAddress, 0);
+        publishView();
     }
 
     // constructor for after we add an initial node
@@ -46,47 +230,361 @@ public class NodeManager implements Serializable {
     public NodeManager(InetSocketAddress listeningAddress, InetSocketAddress targetAddress,
                        Config config) {
         this(listeningAddress, config);
-        Node initialTarget = new Node(targetAddress, 0, config);
-        members.putIfAbsent(initialTarget.getUniqueID(), initialTarget);
+        addSeed(targetAddress);
+    }
+
+    public NodeManager(InetSocketAddress listeningAddress, InetSocketAddress targetAddress,
+                       Config config, Transport transport) {
+        this(listeningAddress, config, transport);
+        addSeed(targetAddress);
+    }
+
+    // same, with any number of seeds, see Seeds for where to get them from
+    public NodeManager(InetSocketAddress listeningAddress, List<InetSocketAddress> seeds, Config config) {
+        this(listeningAddress, config);
+        addSeeds(seeds);
+    }
+
+    // a member to start gossiping with, call before start()
+    // our own address is skipped, so every node can be given the same list
+    public void addSeed(InetSocketAddress targetAddress) {
+        if (NodeId.of(targetAddress) == self.getId() || seeds.contains(targetAddress)) {
+            return;
+        }
+        addMember(targetAddress, 0);
+        seeds.add(targetAddress);
+        publishView();
+    }
+
+    public void addSeeds(Collection<InetSocketAddress> targetAddresses) {
+        for (InetSocketAddress targetAddress : targetAddresses) {
+            addSeed(targetAddress);
+        }
+    }
+
+    // the members in the snapshot before we start: ourselves continue from our last sequence
+    // and beyond our last incarnation, so the cluster drops whatever it still suspects us of.
+    // The others come back as suspects and seeds, failed ones do not come back
+    private void restoreSnapshot() {
+        for (MemberUpdate saved : snapshot.restored()) {
+            if (saved.getId() == self.getId()) {
+                self.updateSequenceNumber(saved.getSequenceNumber());
+                self.updateIncarnation(saved.getIncarnation() + 1);
+                continue;
+            }
+            if (saved.getType() == MemberUpdate.FAILED || members.get(saved.getId()) != null) {
+                continue;
+            }
+            Node node = addMember(saved.toSocketAddress(), saved.getSequenceNumber());
+            if (node == null) {
+                continue;
+            }
+            node.updateIncarnation(saved.getIncarnation());
+            node.markSuspect(scheduler.nanoTime());
+            armDeadline(node);
+            seeds.add(node.getSocketAddress());
+        }
+        publishView();
+    }
+
+    // also exchanges the full membership over TCP, on the port with the same number as our UDP
+    // port: with the first seed that answers when we start, then with a random member every
+    // interval (zero only syncs on start). A joining node learns the whole cluster at once
+    // instead of one digest page per round. Call before start(), needs a real network
+    public void enableStateTransfer(Duration interval) {
+        stateTransfer = new StateTransfer(this, inetSocketAddress, scheduler);
+        stateTransferIntervalNanos = interval.toNanos();
+    }
+
+    // keeps our member table in the given file and reads it back when we start, so a node that
+    // restarts knows the cluster without any seed: the members it knew come back as suspects and
+    // seeds, those still there confirm themselves with their next heartbeat, the others fail as
+    // usual. Every change is appended to the file at once, the whole table is rewritten every
+    // compactionInterval. Appends survive the process dying, and a crash of the machine loses
+    // those of the last second at most, see the overload. Call before start()
+    public void enableSnapshot(Path file, Duration compactionInterval) throws IOException {
+        enableSnapshot(file, compactionInterval, Duration.ofSeconds(1));
+    }
+
+    // same, with appends synced to the disk every syncInterval; zero syncs every change as it is
+    // appended, which costs a sync per membership change
+    public void enableSnapshot(Path file, Duration compactionInterval, Duration syncInterval) throws IOException {
+        snapshot = new MembershipSnapshot(this, file);
+        snapshotCompactionNanos = compactionInterval.toNanos();
+        snapshotSyncNanos = syncInterval.toNanos();
     }
 
     public void start() {
+        timing.setBackOff(probing);
+        if (snapshot != null) {
+            restoreSnapshot();
+            snapshot.start(snapshotCompactionNanos, snapshotSyncNanos);
+        }
+        // tell the cluster we are here, also when we come back with the same address
+        dissemination.enqueue(MemberUpdate.ALIVE, self, self.getIncarnation());
         startSenderThread();
-        startReceiverThread();
-        startFailureDetectionThread();
+        if (probing) {
+            startProbing();
+        }
+        if (!seeds.isEmpty()) {
+            join = new Join(this, scheduler, new ArrayList<>(seeds), config.probeTimeout.toNanos());
+        }
+        transport.start(this::onPacket);
+        if (stateTransfer != null) {
+            stateTransfer.start(stateTransferIntervalNanos, random);
+        }
+        if (join != null) {
+            join.start();
+        }
+        startFailureDetection();
+        startVersionCleanup();
         printNodes();
-        // heartbeatExecutor.scheduleAtFixedRate(this::sendHeartbeats, 0,
-        //      2, //heartbeat interval
-        //   TimeUnit.MILLISECONDS);
+        registerMetrics();
     }
-/*
-    private void sendHeartbeats() {
-        // Iterate through the members and send heartbeat messages to each node
-        System.out.println("Sending heartbeat to " + members.size() + " members");
-        for (Node member : members.values()) {
-            if (!member.getUniqueID().equals(self.getUniqueID())) {
-                socketService.sendHeartbeat(member, self);
+
+    // members leave() waits for, fewer if the cluster is smaller
+    private static final int LEAVE_ACKS = 3;
+
+    // leaves the cluster for good and stops: signs off with a LEFT update of a newer incarnation,
+    // pings a few members right away with it and waits for their acks, asking others every probe
+    // timeout until LEAVE_ACKS of them acked or the timeout is up. Every member that hears of it
+    // removes us at once and passes it on, instead of waiting out the failure and cleanup
+    // timeouts. Blocks the caller, returns whether enough members acked in time
+    public boolean leave(Duration timeout) throws InterruptedException {
+        leaving = true;
+        self.updateIncarnation(self.getIncarnation() + 1);
+        dissemination.enqueue(MemberUpdate.LEFT, self, self.getIncarnation());
+        long deadline = scheduler.nanoTime() + timeout.toNanos();
+        boolean acked = false;
+        // as many as we could ask the first time, at most LEAVE_ACKS
+        int wanted = -1;
+        try {
+            while (!acked) {
+                List<Node> targets = farewellTargets();
+                long remaining = deadline - scheduler.nanoTime();
+                if (targets.isEmpty() || remaining <= 0) {
+                    break;
+                }
+                if (wanted < 0) {
+                    wanted = targets.size();
+                }
+                prober.sendFarewells(targets);
+                acked = prober.awaitFarewellAcks(wanted, Math.min(remaining, config.probeTimeout.toNanos()));
             }
+        } finally {
+            stop();
         }
+        return acked;
     }
-*/
 
+    // up to LEAVE_ACKS random live members that can read a LEFT and have not acked it yet
+    private List<Node> farewellTargets() {
+        List<Node> targets = new ArrayList<>();
+        Node[] all = members.toArray();
+        int start = all.length == 0 ? 0 : random.nextInt(all.length);
+        for (int i = 0; i < all.length && targets.size() < LEAVE_ACKS; i++) {
+            Node node = all[(start + i) % all.length];
+            if (node != self && !node.hasFailed()
+                    && versions.versionFor(node.getSocketAddress()) >= MemberUpdate.minVersion(MemberUpdate.LEFT)
+                    && !prober.hasAckedFarewell(node.getSocketAddress())) {
+                targets.add(node);
+            }
+        }
+        return targets;
+    }
 
     public void stopHeartbeats() {
-        // Stop the heartbeat thread
-        heartbeatExecutor.shutdown();
+        // Stop the heartbeat rounds, the rest keeps running on the scheduler
+        heartbeatsStopped = true;
     }
 
+    // compatibility view keyed by Node.getUniqueID(), a snapshot: later changes to the membership
+    // do not show up in it, while the Nodes in it stay live
     public ConcurrentHashMap<String, Node> getMembers() {
-        return members;
+        Node[] all = members.toArray();
+        ConcurrentHashMap<String, Node> view = new ConcurrentHashMap<>(all.length * 2);
+        for (Node node : all) {
+            view.put(node.getUniqueID(), node);
+        }
+        return view;
     }
 
-    public Socket getSocketService() {
-        return socketService;
+    public Transport getTransport() {
+        return transport;
+    }
+
+    // how many bytes of datagrams the kernel queues for us while the receive loops are busy, the
+    // default is often too small for bursts from a large cluster. The kernel may round or cap it,
+    // getSocketReceiveBufferSize says what it granted. Ignored by transports without a socket
+    public void setSocketReceiveBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Receive buffer must be positive, got " + bytes);
+        }
+        transport.setSocketReceiveBufferSize(bytes);
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return transport.getSocketReceiveBufferSize();
     }
 
     public void stop() {
         stopped = true;
+        scheduler.shutdown();
+        EventDispatcher events = this.events;
+        if (events != null) {
+            events.close();
+        }
+        transport.close();
+        if (stateTransfer != null) {
+            stateTransfer.close();
+        }
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        unregisterMetrics();
+        members.getJournal().close();
+    }
+
+    // records membership changes, and at finer levels heartbeats and packets, into the journal
+    // instead of nowhere; the journal is closed (and flushed) by stop() or when replaced
+    // e.g. new EventJournal(65536, JournalLevel.DEBUG, new RollingFileSink(dir, "node", 64 << 20, 4))
+    public void setJournal(EventJournal journal) {
+        EventJournal previous = members.getJournal();
+        members.setJournal(journal);
+        previous.close();
+    }
+
+    public EventJournal getJournal() {
+        return members.getJournal();
+    }
+
+    private void record(JournalLevel level, byte event, Node node, int extra) {
+        members.getJournal().record(level, event, node.getId(), node.getSequenceNumber(), extra);
+    }
+
+    // speeds up the rounds for a while if they adapt and keeps the snapshot; the listeners hear
+    // of it once the pass that made the change publishes the view
+    private void publish(MembershipEvent.Type type, Node node) {
+        timing.onMembershipChange();
+        if (snapshot != null) {
+            snapshot.record(node, type == MembershipEvent.Type.REMOVED);
+        }
+        synchronized (pendingEvents) {
+            pendingEvents.add(new MembershipEvent(type, node.getSocketAddress(), scheduler.nanoTime()));
+        }
+    }
+
+    // ends a pass that may have changed the membership (a packet, a state transfer frame, a
+    // detection tick, a failed probe): publishes the view with its changes, then the events held
+    // back until now, so a listener never reads a view older than the events it was handed
+    private void publishView() {
+        synchronized (pendingEvents) {
+            members.publishView();
+            for (MembershipEvent event : pendingEvents) {
+                events().publish(event.getType(), event.getAddress());
+            }
+            pendingEvents.clear();
+        }
+    }
+
+    // counters, histograms and members per state at this moment, cheap enough to scrape often:
+    // only counting the members per state walks the member table
+    public MetricsSnapshot snapshot() {
+        return metrics.snapshot();
+    }
+
+    public GossipMetrics getMetrics() {
+        return metrics;
+    }
+
+    // makes the metrics readable over JMX as gossip:type=NodeManager,address="host:port"
+    // a node that cannot register (another one with the same address in this JVM) runs without
+    private void registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("gossip:type=NodeManager,address="
+                    + ObjectName.quote(inetSocketAddress.getHostString() + ":" + inetSocketAddress.getPort()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            System.out.println("Metrics not registered over JMX: " + e.getMessage());
+        }
+    }
+
+    private void unregisterMetrics() {
+        ObjectName name = metricsName;
+        metricsName = null;
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+
+    // switches every member, current and future, to detectors from the factory
+    // e.g. () -> new PhiAccrualFailureDetector(config.updateFrequency)
+    public void setFailureDetectorFactory(Supplier<FailureDetector> failureDetectorFactory) {
+        this.failureDetectorFactory = failureDetectorFactory;
+        for (Node node : members.toArray()) {
+            node.setFailureDetector(failureDetectorFactory.get());
+            armDeadline(node);
+        }
+    }
+
+    // how many times every membership update is piggybacked, times log10 of the cluster size:
+    // the lambda of SWIM's lambda * log(n). Higher spreads updates more reliably over lossy
+    // networks for a few more bytes per packet. Defaults to 4
+    public void setRetransmitMultiplier(int multiplier) {
+        dissemination.setRetransmitMultiplier(multiplier);
+    }
+
+    // the availability zone (rack, datacenter) we run in, call before start(). It travels with
+    // our own entries and with every entry that introduces us to a member, and rounds then pick
+    // members of our own zone, those of other zones only with the cross zone probability.
+    // Members that do not tell their zone, e.g. older versions, count as our own
+    public void setZone(String zone) {
+        if (zone != null && (zone.isEmpty()
+                || zone.getBytes(StandardCharsets.UTF_8).length > MessageCodec.MAX_ZONE_LENGTH)) {
+            throw new IllegalArgumentException("Zone must have 1 to " + MessageCodec.MAX_ZONE_LENGTH
+                    + " UTF-8 bytes, got '" + zone + "'");
+        }
+        self.setZone(zone);
+        metrics.setZone(zone);
+        peerSelector.setZone(zone, crossZoneProbability);
+    }
+
+    // how likely each gossip target is to be in another zone than ours, once we have one.
+    // Defaults to 0.05: in the simulator (200 nodes, 3 zones) about a fifth of the bytes still
+    // cross zones, against two thirds with zones ignored, so three to four times less, while
+    // changes still reach the other zones within a few rounds. Probes and state transfers ignore
+    // zones, failure detection needs every member probed
+    public void setCrossZoneProbability(double probability) {
+        if (!(probability > 0 && probability <= 1)) {
+            throw new IllegalArgumentException("Cross zone probability must be in (0, 1], got "
+                    + probability);
+        }
+        crossZoneProbability = probability;
+        peerSelector.setZone(self.getZone(), probability);
+    }
+
+    // lets the cluster set the pace instead of the fixed config, call before start(): rounds run
+    // up to twice as often and gossip with up to log10(n) more peers right after a membership
+    // change, then calm down to the configured interval and fanout (with probing, to half the
+    // configured rate). Failure and cleanup timeouts count as configured for up to 10 members
+    // and grow with log10(n) beyond, see AdaptiveTiming
+    public void enableAdaptiveTiming() {
+        adaptiveTiming = true;
+    }
+
+    // switches failure detection to SWIM probing, call before start()
+    // members are then only suspected when neither a direct nor an indirect ping got an answer
+    // within failureDetectionFrequency, and declared failed nodeFailureTimeout after that unless
+    // something proves them alive. Without it a member fails when its heartbeats stop arriving
+    public void enableProbing() {
+        probing = true;
     }
 
     public void setOnNewNodeHandler(Updater onNewMember) {
@@ -105,242 +603,901 @@ public class NodeManager implements Serializable {
         this.onRemovedMember = onRemovedMember;
     }
 
-    private void printNodes() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(2500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    // gets every batch of membership changes, next to the Updaters above
+    public void addMembershipListener(MembershipListener listener) {
+        events().addListener(listener);
+    }
+
+    // replaces the default dispatcher (unbatched, on its own thread), e.g. to batch and coalesce
+    // changes or run listeners on an executor of your own. Call before start(), listeners added
+    // to the previous dispatcher are not carried over
+    public synchronized void setEventDispatcher(EventDispatcher events) {
+        if (this.events != null) {
+            this.events.close();
+        }
+        events.addListener(this::callUpdaters);
+        this.events = events;
+    }
+
+    public EventDispatcher getEventDispatcher() {
+        return events();
+    }
+
+    // the default dispatcher is only created when something needs one and none was set, so a
+    // node that gets its own never builds the default's queue and thread
+    private EventDispatcher events() {
+        EventDispatcher current = events;
+        return current != null ? current : defaultEvents();
+    }
+
+    private synchronized EventDispatcher defaultEvents() {
+        if (events == null) {
+            setEventDispatcher(new EventDispatcher(4096, Duration.ZERO, false, null, threadMode));
+        }
+        return events;
+    }
+
+    // runs on the dispatcher's listener executor
+    private void callUpdaters(List<MembershipEvent> changes) {
+        for (MembershipEvent change : changes) {
+            Updater updater;
+            switch (change.getType()) {
+                case NEW:
+                    updater = onNewMember;
+                    break;
+                case FAILED:
+                    updater = onFailedMember;
+                    break;
+                case REVIVED:
+                    updater = onRevivedMember;
+                    break;
+                case REMOVED:
+                    updater = onRemovedMember;
+                    break;
+                default:
+                    updater = null;
+                    break;
+            }
+            if (updater != null) {
+                updater.update(change.getAddress());
             }
+        }
+    }
 
+    // getHostString, so printing never waits for a reverse DNS lookup
+    private void printNodes() {
+        scheduler.schedule(() -> {
             getAliveMembers().forEach(node ->
-                    System.out.println("Health status: " + node.getHostName() + ":"
+                    System.out.println("Health status: " + node.getHostString() + ":"
                             + node.getPort() + " - alive"));
             getFailedMembers().forEach(node ->
-                    System.out.println("Health status: " + node.getHostName() + ":"
+                    System.out.println("Health status: " + node.getHostString() + ":"
                             + node.getPort() + " - failed"));
-        }).start();
+        }, TimeUnit.MILLISECONDS.toNanos(2500));
     }
 
+    // states are kept current by the failure detection task, so these only copy the current view
     private ArrayList<InetSocketAddress> getFailedMembers() {
-        int initialSize = members.size();
-        ArrayList<InetSocketAddress> failed = new ArrayList<>(initialSize);
-        for (String key : members.keySet()) {
-            Node node = members.get(key);
-            node.checkIfFailed();
-            if (node.hasFailed()) {
-                String ipAddress = node.getAddress();
-                int port = node.getPort();
-                failed.add(new InetSocketAddress(ipAddress, port));
-            }
-        }
-        return failed;
+        return new ArrayList<>(members.view().getFailedMembers());
     }
 
+    // a copy the caller may change, getMembershipView().getAliveMembers() is the same without it
     public ArrayList<InetSocketAddress> getAliveMembers() {
-        int initialSize = members.size();
-        ArrayList<InetSocketAddress> alive = new ArrayList<>(initialSize);
-        for (String key : members.keySet()) {
-            Node node = members.get(key);
-            node.checkIfFailed();
-            if (!node.hasFailed()) {
-                String ipAddress = node.getAddress();
-                int port = node.getPort();
-                alive.add(new InetSocketAddress(ipAddress, port));
-            }
-        }
-        return alive;
+        return new ArrayList<>(members.view().getAliveMembers());
     }
 
-    private void startFailureDetectionThread() {
-        new Thread(() -> {
-            detectFailedNodes();
+    // who is here, an immutable view replaced at the end of every packet, state transfer frame or
+    // detection tick that added, removed or changed the state of a member, so reading it is one
+    // volatile read. Compare two views with MembershipView.diff, or just their versions to see
+    // whether anything changed
+    public MembershipView getMembershipView() {
+        return members.view();
+    }
+
+    // membership events are dispatched asynchronously, so detection can share the scheduler
+    // with the rounds without a slow listener holding either up. A tick that runs late tells us
+    // we were paused, and is seen by the local health before it looks at any deadline
+    private void startFailureDetection() {
+        long period = config.failureDetectionFrequency.toNanos();
+        detectionDueNanos = scheduler.nanoTime() + period;
+        scheduler.scheduleAtFixedRate(() -> {
+            if (stopped) {
+                return;
+            }
             try {
-                Thread.sleep(config.failureDetectionFrequency.toMillis());
-            } catch (InterruptedException e) {
+                health.onDetectionTick(scheduler.nanoTime() - detectionDueNanos, period);
+                detectionDueNanos += period;
+                detectFailedNodes();
+                publishView();
+            } catch (RuntimeException e) {
                 e.printStackTrace();
             }
-        }).start();
+        }, period, period);
+    }
+
+    // every address that sends us a valid packet gets a wire version, members or not. Every cleanup
+    // timeout the ones that are neither members nor buried are forgotten, so addresses that never
+    // joined, or whose tombstone expired while we did not hear of it, do not pile up
+    private void startVersionCleanup() {
+        long period = config.nodeCleanupTimeout.toNanos();
+        scheduler.scheduleAtFixedRate(() -> {
+            if (!stopped) {
+                versions.retainOnly(this::isKnown);
+            }
+        }, period, period);
+    }
+
+    private boolean isKnown(InetSocketAddress address) {
+        long id = NodeId.of(address);
+        return members.get(id) != null || tombstones.containsKey(id);
     }
 
     // TODO: add handling to join the membership again if revived node is removed from membership list
     private void detectFailedNodes() {
-        String[] keys = new String[members.size()];
-        members.keySet().toArray(keys);
-        for (String key : keys) {
-            Node node = members.get(key);
-            boolean hadFailed = node.hasFailed();
-            node.checkIfFailed();
-            if (hadFailed != node.hasFailed()) {
-                if (node.hasFailed()) {
-                    if (onFailedMember != null) {
-                        // indicate to the interested party that a node has failed
-                        // this, like other Updaters will have update() overridden in main
-                        // that lets us customize how update() behaves
-                        onFailedMember.update(node.getSocketAddress());
-                    }
+        expired.clear();
+        deadlines.advance(scheduler.nanoTime(), expired);
+        for (Node node : expired) {
+            // removed (or replaced) since the deadline was set
+            if (members.contains(node)) {
+                onDeadline(node);
+            }
+        }
+    }
+
+    private void onDeadline(Node node) {
+        if (node.shouldCleanup()) {
+            if (removeMember(node)) {
+                bury(node);
+                record(JournalLevel.INFO, JournalEvent.MEMBER_REMOVED, node, 0);
+                publish(MembershipEvent.Type.REMOVED, node);
+            }
+            return;
+        }
+        boolean hadFailed = node.hasFailed();
+        refreshState(node);
+        if (!hadFailed && node.hasFailed()) {
+            long silence = scheduler.nanoTime() - node.getLastUpdatedNanos();
+            metrics.detected(silence);
+            record(JournalLevel.INFO, JournalEvent.MEMBER_FAILED, node,
+                    (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(silence)));
+            // indicate to the interested party that a node has failed
+            // this, like other Updaters will have update() overridden in main
+            // that lets us customize how update() behaves
+            publish(MembershipEvent.Type.FAILED, node);
+            // and tell the others, the member refutes it if it is still there
+            dissemination.enqueue(MemberUpdate.FAILED, node, node.getIncarnation());
+        }
+        armDeadline(node);
+    }
+
+    // remembers a removed member until the others have removed it too
+    private void bury(Node node) {
+        bury(node.getId(), node.getSocketAddress(), node.getSequenceNumber(), node.getIncarnation());
+    }
+
+    // once the tombstone expires and the member has not come back, its wire version is forgotten
+    // too, so the negotiator does not keep every address we ever heard from
+    private void bury(long id, InetSocketAddress address, long sequenceNumber, long incarnation) {
+        long[] tombstone = {sequenceNumber, incarnation};
+        tombstones.put(id, tombstone);
+        scheduler.schedule(() -> {
+            if (tombstones.remove(id, tombstone) && members.get(id) == null) {
+                versions.forget(address);
+            }
+        }, config.nodeFailureTimeout.plus(config.nodeCleanupTimeout).toNanos());
+    }
+
+    // a buried member talks to us itself: it restarted, most likely without a snapshot, with an
+    // incarnation and sequence the tombstone shuts out until it expires. Tell it how it was buried
+    // (a LEFT if it left, a FAILED if it was cleaned up) with the buried incarnation, right away on
+    // a hello ACK and through the gossip after that; it refutes with a newer incarnation, which
+    // gets it past the tombstone here and everywhere else
+    private void remindOfTombstone(long id, InetSocketAddress member, long sequenceNumber) {
+        long[] tombstone = tombstones.get(id);
+        if (tombstone == null) {
+            return;
+        }
+        byte type = tombstone[0] == Long.MAX_VALUE ? MemberUpdate.LEFT : MemberUpdate.FAILED;
+        dissemination.enqueue(type, id, member, sequenceNumber, tombstone[1], null);
+        if (versions.versionFor(member) >= MessageType.minVersion(MessageType.ACK)) {
+            sendProbeReply(MessageType.ACK, 0, member);
+        }
+    }
+
+    // whether what we heard about an unknown member is only an echo of one we removed
+    private boolean isBuried(long id, long sequenceNumber, long incarnation) {
+        long[] tombstone = tombstones.get(id);
+        return tombstone != null && sequenceNumber <= tombstone[0] && incarnation <= tombstone[1];
+    }
+
+    // (re)schedules the member's next deadline from its current state, O(1)
+    // alive members that answer probes need none, the prober suspects them when they stop
+    private void armDeadline(Node node) {
+        // self is null while we add ourselves
+        if (self == null || node == self) {
+            return;
+        }
+        switch (node.getState()) {
+            case ALIVE:
+                if (probing && canProbe(node)) {
+                    deadlines.cancel(node.getDeadline());
                 } else {
-                    // if had failed and has failed are different,
-                    // and the node right now is working, then we will indicate that the node
-                    // is working again (revived)
-                    if (onRevivedMember != null) {
-                        onRevivedMember.update(node.getSocketAddress());
-                    }
+                    deadlines.schedule(node.getDeadline(), node.getUnavailableAfterNanos(health.multiplier()));
                 }
+                break;
+            case SUSPECT:
+                deadlines.schedule(node.getDeadline(),
+                        node.getSuspectedSinceNanos() + health.stretch(config.nodeFailureTimeout.toNanos()) + 1);
+                break;
+            case FAILED:
+                deadlines.schedule(node.getDeadline(), node.getCleanupDeadlineNanos());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // a suspicion (ours or one we heard about) that nothing refuted for nodeFailureTimeout
+    // fails a node. Otherwise, in heartbeat mode and for members too old to answer probes, the
+    // node fails once its failure detector gives up on it. Both wait longer while our local
+    // health is degraded: deadlines set meanwhile keep their length, they only fire late
+    private void refreshState(Node node) {
+        if (node.isSuspect()) {
+            long timeout = health.stretch(config.nodeFailureTimeout.toNanos());
+            if (scheduler.nanoTime() - node.getSuspectedSinceNanos() > timeout) {
+                node.setFailed(true);
             }
-            if (node.shouldCleanup()) {
-                synchronized (members) {
-                    members.remove(key);
-                    if (onRemovedMember != null) {
-                        onRemovedMember.update(node.getSocketAddress());
-                    }
-                }
+        } else if (!probing || !canProbe(node)) {
+            node.checkIfFailed(health.multiplier());
+        }
+    }
+
+    // one probe per period, and fewer while our local health is degraded
+    private void startProbing() {
+        long period = config.failureDetectionFrequency.toNanos();
+        scheduler.scheduleWithJitter(() -> {
+            if (stopped) {
+                return;
             }
+            try {
+                prober.probeRound();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, () -> health.stretch(period), 0, random);
+    }
+
+    boolean canProbe(Node node) {
+        return canProbe(node.getSocketAddress());
+    }
+
+    // false for members we never heard from or have forgotten, they get no pings either
+    boolean canProbe(InetSocketAddress member) {
+        return versions.versionFor(member) >= MessageType.minVersion(MessageType.PING);
+    }
+
+    Node getSelf() {
+        return self;
+    }
 
+    // a direct or relayed ack is proof of life
+    void onProbeAcked(Node node) {
+        health.onProbeAcked();
+        if (node.isSuspect()) {
+            node.setFailed(false);
+            record(JournalLevel.INFO, JournalEvent.SUSPICION_CLEARED, node, 0);
+        } else if (node.hasFailed()) {
+            reviveMember(node);
         }
+        armDeadline(node);
     }
 
-    private void startReceiverThread() {
-        new Thread(() -> {
-            while (!stopped) {
-                // receivePeerMessage();
-                receiveHeartbeatAndUpdateMembers();
+    // nobody could reach the node within one protocol period
+    void onProbeFailed(Node node) {
+        health.onProbeMissed();
+        if (node.markSuspect(scheduler.nanoTime())) {
+            record(JournalLevel.INFO, JournalEvent.MEMBER_SUSPECTED, node, 0);
+            timing.onMembershipChange();
+            dissemination.enqueue(MemberUpdate.SUSPECT, node, node.getIncarnation());
+            armDeadline(node);
+            publishView();
+        }
+    }
+
+    private void reviveMember(Node node) {
+        node.setFailed(false);
+        record(JournalLevel.INFO, JournalEvent.MEMBER_REVIVED, node, 0);
+        publish(MembershipEvent.Type.REVIVED, node);
+    }
+
+    // PING / ACK from a receive loop, always about ourselves
+    void sendProbeReply(byte type, long probeId, InetSocketAddress to) {
+        HeartbeatMessage reply = replyMessage.get();
+        reply.clear();
+        reply.setType(type);
+        reply.setProbeId(probeId);
+        reply.addEntry(self.getId(), self.getSocketAddress(), self.getSequenceNumber(), self.getZoneBytes());
+        send(to, reply);
+    }
+
+    // returns the new member, or null if it is already known
+    private Node addMember(InetSocketAddress address, long sequenceNumber) {
+        return addMember(address, sequenceNumber, null);
+    }
+
+    // same, in the given zone if we know it, so the peer selector sorts it right away
+    private Node addMember(InetSocketAddress address, long sequenceNumber, String zone) {
+        Node node = members.add(address, sequenceNumber, config);
+        if (node != null) {
+            node.setZone(zone);
+            if (failureDetectorFactory != null) {
+                node.setFailureDetector(failureDetectorFactory.get());
             }
-        }).start();
+            peerSelector.add(node);
+            probeSelector.add(node);
+            armDeadline(node);
+        }
+        return node;
     }
 
-    private void receivePeerMessage() {
-        Node sourceNode = socketService.receiveMessage();
-        Node member = members.get(sourceNode.getUniqueID());
+    private boolean removeMember(Node node) {
+        deadlines.cancel(node.getDeadline());
+        return members.remove(node);
+    }
 
-        // update our member list with new node if not present in our list
-        if (member == null) {
-            synchronized (members) {
-                sourceNode.setConfig(config);
-                sourceNode.setLastUpdatedTime();
-                members.putIfAbsent(sourceNode.getUniqueID(), sourceNode);
-                // updateMemberShipListFromSourceNode();
-                if (onNewMember != null) {
-                    onNewMember.update(sourceNode.getSocketAddress());
+    // every round we bump our own heartbeat and start a scuttlebutt exchange with
+    // config.peersToUpdatePerInterval members (or as many as adaptive timing says) chosen by
+    // the PeerSelector: we send a digest of one
+    // page of our members, the peer answers with the entries we are behind on plus the ids it
+    // wants, and we answer those with a delta. Peers that only speak wire version 1 still get
+    // the full list
+    public void sendHeartbeats() {
+        self.incrementSequenceNumber();
+        int fanout = config.peersToUpdatePerInterval;
+        if (adaptiveTiming) {
+            Config scaled = timing.rescale(members.size());
+            if (scaled != null) {
+                applyTimeouts(scaled);
+            }
+            fanout = timing.fanout(members.size() - 1);
+        }
+        peerSelector.next(fanout, roundTargets);
+        if (roundTargets.isEmpty()) {
+            return;
+        }
+        buildDigestPage(outgoingDigest);
+        boolean legacyFilled = false;
+        for (Node member : roundTargets) {
+            int version = versions.versionFor(member.getSocketAddress());
+            if (version >= MessageType.minVersion(MessageType.DIGEST)) {
+                send(member.getSocketAddress(), outgoingDigest);
+            } else {
+                if (!legacyFilled) {
+                    fillHeartbeat(outgoingHeartbeat);
+                    legacyFilled = true;
                 }
+                send(member.getSocketAddress(), outgoingHeartbeat);
             }
-        } else {
-            // if node already exists in our list, update the sequence number of self node
-            // to the new one given by the sourceNode
-            System.out.println("Updating sequence number for node " + member.getUniqueID());
-            member.updateSequenceNumber(sourceNode.getSequenceNumber());
         }
     }
 
-    //TODO: implement random instead of all-to-all
-    public void sendHeartbeats() {
-        System.out.println("Sending heartbeats to members...");
-        String[] list = convertConcurrentToArray(members);
-        // HeartbeatMessage heartbeatMessage = new HeartbeatMessage(list, self.getSequenceNumber());
-        for (Node member : members.values()) {
-            if (!member.getUniqueID().equals(self.getUniqueID())) {
-                socketService.sendHeartbeat(member, list);
+    // the join's hello, on the scheduler: ourselves and whoever fits, in a legacy heartbeat since
+    // we do not know the seeds' versions yet. Seeds that speak digests answer it right away
+    void greet(List<InetSocketAddress> targets) {
+        fillHeartbeat(outgoingHeartbeat);
+        for (InetSocketAddress target : targets) {
+            send(target, outgoingHeartbeat);
+        }
+    }
+
+    // the seed answered our hello: pull everything it knows over TCP if we can, and start a
+    // digest exchange with it right away either way instead of waiting for it to come up
+    void onJoined(InetSocketAddress seed) {
+        if (stateTransfer != null) {
+            stateTransfer.pull(seed);
+        }
+        scheduler.schedule(() -> {
+            if (stopped || versions.versionFor(seed) < MessageType.minVersion(MessageType.DIGEST)) {
+                return;
             }
+            buildDigestPage(outgoingDigest);
+            send(seed, outgoingDigest);
+        }, 0);
+    }
+
+    // every member, current and future, gets the new timeouts. The detectors are replaced (the
+    // new ones start from the last heartbeat), custom ones from the factory are kept
+    private void applyTimeouts(Config scaled) {
+        config = scaled;
+        for (Node node : members.toArray()) {
+            node.setConfig(scaled);
+            if (failureDetectorFactory == null) {
+                node.setFailureDetector(new TimeoutFailureDetector(scaled.nodeFailureTimeout));
+            }
+            armDeadline(node);
         }
     }
 
-    public String[] convertConcurrentToArray(ConcurrentHashMap<String, Node> concMap) {
-        ArrayList<String> addressList = new ArrayList<>();
-        for (Node node : concMap.values()) {
-            addressList.add(node.getInetAddress().toString() + ":" + Integer.toString(node.getPort()));
+    // writes ourselves and as many other members as fit in one datagram into the reusable
+    // outgoing message. Once the list outgrows a packet, successive rounds continue where the
+    // last one stopped, so a version 1 peer still hears about everybody eventually
+    public void fillHeartbeat(HeartbeatMessage message) {
+        message.clear();
+        message.addEntry(self.getId(), self.getSocketAddress(), self.getSequenceNumber());
+        int budget = MessageCodec.MAX_PACKET_SIZE - MessageCodec.overhead(MessageType.HEARTBEAT)
+                - MessageCodec.sizeOf(message.getEntry(0));
+        int count;
+        while ((count = members.copyTo(legacyMembers)) < 0) {
+            legacyMembers = new Node[Integer.highestOneBit(members.size()) * 2];
+        }
+        int start = count == 0 ? 0 : legacyCursor % count;
+        int offered = 0;
+        while (offered < count && budget > 0) {
+            budget = offerEntry(message, legacyMembers[(start + offered) % count], false, budget);
+            offered++;
         }
+        // do not keep removed members reachable until the next legacy round
+        Arrays.fill(legacyMembers, 0, count, null);
+        // the member that did not fit goes first next time
+        legacyCursor = budget > 0 ? start : start + offered - 1;
+    }
 
-        // Convert the ArrayList to a String array
-        String[] addressArray = addressList.toArray(new String[0]);
+    // the digest for this round: ourselves as a full entry, then up to DIGEST_PAGE_SIZE
+    // (id, sequence) pairs starting at digestCursor. The range tells the receiver which ids
+    // the page covers, so it can also push members that fall in the range but are not listed
+    private void buildDigestPage(HeartbeatMessage digest) {
+        digest.clear();
+        digest.setType(MessageType.DIGEST);
+        digest.addEntry(self.getId(), self.getSocketAddress(), self.getSequenceNumber(), self.getZoneBytes());
 
-        return addressArray;
+        long rangeStart = digestCursor;
+        int count = members.page(rangeStart, NodeId.MAX, DIGEST_PAGE_SIZE + 1, pageIds, pageSequences);
+        if (count == 0 && rangeStart != NodeId.MIN) {
+            // past the highest id, start over
+            rangeStart = NodeId.MIN;
+            count = members.page(rangeStart, NodeId.MAX, DIGEST_PAGE_SIZE + 1, pageIds, pageSequences);
+        }
+        // the extra pair only tells us there is more after this page
+        boolean last = count <= DIGEST_PAGE_SIZE;
+        count = Math.min(count, DIGEST_PAGE_SIZE);
+        long rangeEnd = last ? NodeId.MAX : pageIds[count - 1];
+        for (int i = 0; i < count; i++) {
+            digest.addDigest(pageIds[i], pageSequences[i]);
+        }
+        digest.setRange(rangeStart, rangeEnd);
+        digestCursor = rangeEnd == NodeId.MAX ? NodeId.MIN : rangeEnd + 1;
+    }
+
+    // up to how late a round may start, at random, call before start(). Defaults to a tenth of
+    // the gossip interval, zero runs the rounds exactly on the interval
+    public void setRoundJitter(Duration jitter) {
+        roundJitterNanos = jitter.toNanos();
     }
 
+    // rounds run on the scheduler's single thread, sends never start threads of their own.
+    // The first round starts at a random point of the first interval and every round a little
+    // late at random, so a cluster started at once does not send all its heartbeats together.
+    // With adaptive timing the interval is asked for again after every round
     private void startSenderThread() {
-        new Thread(() -> {
-            while (!stopped) {
-                // sendGossipToRandomNode();
-                // heartbeatExecutor.scheduleAtFixedRate(this::sendHeartbeats, 0,
-                   //     5000, //heartbeat interval
-                     //   TimeUnit.MILLISECONDS);
+        long period = config.updateFrequency.toNanos();
+        LongSupplier interval = adaptiveTiming ? timing::intervalNanos : () -> period;
+        scheduler.scheduleWithJitter(() -> {
+            if (stopped || heartbeatsStopped) {
+                return;
+            }
+            try {
                 sendHeartbeats();
-                try {
-                    Thread.sleep(config.updateFrequency.toMillis());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            } catch (RuntimeException e) {
+                // an escaping exception would silently cancel all future rounds
+                e.printStackTrace();
             }
-        }).start();
+        }, (long) (random.nextDouble() * period), interval, roundJitterNanos, random);
     }
 
-    private void sendGossipToRandomNode() {
-        List<String> peersToUpdate = new ArrayList<>();
-        Object[] keys = members.keySet().toArray();
-        if (keys.length < config.peersToUpdatePerInterval) {
-            self.incrementSequenceNumber();
-            for (int i = 0; i < keys.length; i++) {
-                String key = (String) keys[i];
-                if (!key.equals(self.getUniqueID())) {
-                    peersToUpdate.add(key);
-                }
+    // encodes the message in the wire version the target understands and hands it to the transport
+    // peers on version 4+ also get as many pending membership updates as the packet has room for
+    void send(InetSocketAddress target, HeartbeatMessage message) {
+        ByteBuffer buffer = sendBuffers.acquire();
+        try {
+            int version = versions.versionFor(target);
+            message.clearUpdates();
+            MessageCodec.encode(message, version, buffer);
+            // two bytes for the update count, see Dissemination.MAX_PER_PACKET
+            if (version >= MessageCodec.UPDATES_VERSION
+                    && dissemination.piggyback(message, buffer.remaining() - 2, members.size(), version) > 0) {
+                MessageCodec.encodeUpdates(message, buffer);
+            }
+            buffer.flip();
+            int length = buffer.remaining();
+            transport.send(target, buffer);
+            metrics.packetSent(message.getType(), length);
+            if (metrics.countsZones()) {
+                metrics.zoneSent(zoneOf(target), length);
+            }
+            EventJournal journal = members.getJournal();
+            if (journal.isEnabled(JournalLevel.TRACE)) {
+                journal.record(JournalLevel.TRACE, JournalEvent.PACKET_SENT, NodeId.of(target), length,
+                        message.getType());
+            }
+        } catch (BufferOverflowException e) {
+            metrics.messageOversized();
+            members.getJournal().record(JournalLevel.INFO, JournalEvent.MESSAGE_OVERSIZED, NodeId.of(target),
+                    message.getEntryCount(), message.getType());
+        } finally {
+            sendBuffers.release(buffer);
+        }
+    }
+
+    // called by the transport's receive loop(s) for every datagram
+    private void onPacket(InetSocketAddress sender, ByteBuffer packet) {
+        if (stopped) {
+            return;
+        }
+        int length = packet.remaining();
+        if (length > MessageCodec.MAX_PACKET_SIZE) {
+            // no peer sends more, so the transport cut off the end of something that is not ours
+            metrics.packetTruncated();
+            members.getJournal().record(JournalLevel.INFO, JournalEvent.PACKET_TRUNCATED, NodeId.of(sender),
+                    length, 0);
+            return;
+        }
+        HeartbeatMessage message = receivedMessage.get();
+        boolean valid = MessageCodec.decode(packet, message);
+        EventJournal journal = members.getJournal();
+        if (valid) {
+            // only what decoded counts, garbage must not pin a version on an address
+            if (message.getSenderMaxVersion() > 0) {
+                versions.observe(sender, message.getSenderMaxVersion());
+            }
+            metrics.packetReceived(message.getType(), length);
+            if (journal.isEnabled(JournalLevel.TRACE)) {
+                journal.record(JournalLevel.TRACE, JournalEvent.PACKET_RECEIVED, NodeId.of(sender), length,
+                        message.getType());
+            }
+            message.setSender(sender);
+            if (join != null) {
+                join.heardFrom(sender);
+            }
+            long started = scheduler.nanoTime();
+            handleMessage(message);
+            publishView();
+            health.onPacketHandled(scheduler.nanoTime() - started);
+            // after the merge, the message may have told us the sender's zone
+            if (metrics.countsZones()) {
+                metrics.zoneReceived(zoneOf(sender), length);
             }
         } else {
-            // to prevent sending duplicate messages to the same node
-            HashMap<String, String> peers = new HashMap<>();
-            self.incrementSequenceNumber();
-            for (int i = 0; i < config.peersToUpdatePerInterval; i++) {
-                boolean found = false;
-                while (!found) {
-                    int index = (int) (Math.random() * members.size());
-                    String key = (String) keys[index];
-                    if (!key.equals(self.getUniqueID()) && !peers.containsKey((String) keys[index])) {
-                        peers.put((String) keys[index], "");
-                        found = true;
-                        peersToUpdate.add(key);
-                    }
+            metrics.decodeFailed();
+            journal.record(JournalLevel.INFO, JournalEvent.DECODE_FAILED, NodeId.of(sender), length,
+                    message.getType());
+        }
+    }
 
-                }
+    // null if we do not know the member or its zone
+    private String zoneOf(InetSocketAddress address) {
+        Node node = members.get(NodeId.of(address));
+        return node == null ? null : node.getZone();
+    }
 
+    private void handleMessage(HeartbeatMessage message) {
+        long started = scheduler.nanoTime();
+        updateMembership(message);
+        for (int i = 0; i < message.getUpdateCount(); i++) {
+            applyUpdate(message.getUpdate(i));
+        }
+        metrics.merged(scheduler.nanoTime() - started);
+        if (MessageType.isProbe(message.getType())) {
+            prober.onProbeMessage(message);
+        } else if (message.getType() == MessageType.DIGEST) {
+            replyToDigest(message);
+        } else if (message.getType() == MessageType.DIGEST_ACK) {
+            sendWantedEntries(message);
+        } else if (message.getType() == MessageType.HEARTBEAT
+                && message.getSenderMaxVersion() >= MessageType.minVersion(MessageType.ACK)) {
+            // the sender speaks digests but has not heard from us yet, so it took us for a
+            // version 1 node. It may not pick us again for a long time (e.g. we are in another
+            // zone), so say hello with an ACK no probe waits for: probe ids start at 1
+            sendProbeReply(MessageType.ACK, 0, message.getSender());
+        }
+    }
+
+    // the entries of one state transfer frame, from is the peer's gossip address if we know it
+    void mergeState(HeartbeatMessage state, InetSocketAddress from) {
+        if (stopped) {
+            return;
+        }
+        if (from != null) {
+            versions.observe(from, state.getSenderMaxVersion());
+        }
+        long started = scheduler.nanoTime();
+        updateMembership(state);
+        metrics.merged(scheduler.nanoTime() - started);
+        publishView();
+    }
+
+    Node[] memberArray() {
+        return members.toArray();
+    }
+
+    // a random member other than us that has not failed, null if there is none
+    Node randomPeer() {
+        Node[] all = members.toArray();
+        if (all.length == 0) {
+            return null;
+        }
+        int start = random.nextInt(all.length);
+        for (int i = 0; i < all.length; i++) {
+            Node node = all[(start + i) % all.length];
+            if (node != self && !node.hasFailed()) {
+                return node;
             }
         }
+        return null;
+    }
+
+    // version aware merge: unknown members are added, known ones only move forward
+    private void updateMembership(HeartbeatMessage heartbeatMessage) {
+        // the first entry of these is the member that sent (or, for an ACK, answered) it
+        byte type = heartbeatMessage.getType();
+        boolean firstIsSender = type != MessageType.DELTA && type != MessageType.PING_REQ;
+        for (int i = 0; i < heartbeatMessage.getEntryCount(); i++) {
+            mergeEntry(heartbeatMessage.getEntry(i), i == 0 && firstIsSender);
+        }
+    }
 
-        // send message to list of targets
-        for (String target : peersToUpdate) {
-            Node node = members.get(target);
-            new Thread(() -> socketService.sendGossip(node, self)).start();
+    private void mergeEntry(MemberEntry entry, boolean fromItself) {
+        long id = entry.getId();
+        long sequenceNumber = entry.getSequenceNumber();
+        if (id == self.getId()) {
+            // a peer remembers a newer heartbeat of ours than we have, e.g. after a restart
+            self.updateSequenceNumber(sequenceNumber);
+            return;
+        }
+        Node node = members.get(id);
+        if (node == null) {
+            if (isBuried(id, sequenceNumber, 0)) {
+                if (fromItself) {
+                    remindOfTombstone(id, entry.toSocketAddress(), sequenceNumber);
+                }
+                return;
+            }
+            node = addMember(entry.toSocketAddress(), sequenceNumber, entry.getZone());
+            if (node == null) {
+                // another receive loop added it first
+                return;
+            }
+            record(JournalLevel.INFO, JournalEvent.MEMBER_ADDED, node, 0);
+            publish(MembershipEvent.Type.NEW, node);
+            return;
+        }
+        if (entry.hasZone() && !entry.isInZone(node.getZoneBytes())) {
+            // first time we hear it, or the member came back in another zone
+            node.setZone(entry.getZone());
+        }
+        if (sequenceNumber > node.getSequenceNumber()) {
+            // a newer heartbeat also refutes a suspicion
+            long previous = node.getLastUpdatedNanos();
+            node.updateSequenceNumber(sequenceNumber);
+            metrics.heartbeatInterval(node.getLastUpdatedNanos() - previous);
+            if (node.hasFailed()) {
+                reviveMember(node);
+            } else if (node.isSuspect()) {
+                node.setFailed(false);
+                record(JournalLevel.INFO, JournalEvent.SUSPICION_CLEARED, node, 0);
+            }
+            armDeadline(node);
+        } else if (fromItself && node.hasFailed()) {
+            // a member we declared failed talks to us without a newer heartbeat, e.g. it
+            // restarted: tell it, so it can refute with a newer incarnation
+            dissemination.enqueue(MemberUpdate.FAILED, node, node.getIncarnation());
         }
+    }
 
+    // SWIM's rules: an update only counts if its incarnation is at least the one we know (ALIVE:
+    // newer than), and whatever changed our view is passed on. Suspecting us or declaring us
+    // failed gets refuted with a newer incarnation of ourselves. A suspicion also carries the
+    // last heartbeat its author had seen, and a newer one we have disproves it: heartbeats
+    // revive members without a new incarnation, and stale suspicions must not undo that
+    private void applyUpdate(MemberUpdate update) {
+        long id = update.getId();
+        long incarnation = update.getIncarnation();
+        byte type = update.getType();
+        if (id == self.getId()) {
+            if (leaving) {
+                return;
+            }
+            if (type != MemberUpdate.ALIVE && incarnation >= self.getIncarnation()) {
+                self.updateIncarnation(incarnation + 1);
+                members.getJournal().record(JournalLevel.INFO, JournalEvent.SUSPICION_REFUTED, self.getId(),
+                        self.getIncarnation(), type);
+                // the others stopped hearing from us, most likely our fault
+                health.onRefuted();
+                if (snapshot != null) {
+                    snapshot.record(self, false);
+                }
+                dissemination.enqueue(MemberUpdate.ALIVE, self, self.getIncarnation());
+            } else {
+                // we restarted and the cluster remembers a later incarnation of ours
+                self.updateIncarnation(incarnation);
+            }
+            return;
+        }
+        Node node = members.get(id);
+        if (node != null && update.hasZone() && !update.isInZone(node.getZoneBytes())) {
+            node.setZone(update.getZone());
+        }
+        if (type == MemberUpdate.LEFT) {
+            memberLeft(node, update);
+            return;
+        }
+        if (type == MemberUpdate.ALIVE) {
+            if (node == null) {
+                if (isBuried(id, update.getSequenceNumber(), incarnation)) {
+                    return;
+                }
+                node = addMember(update.toSocketAddress(), update.getSequenceNumber(), update.getZone());
+                if (node == null) {
+                    return;
+                }
+                node.updateIncarnation(incarnation);
+                record(JournalLevel.INFO, JournalEvent.MEMBER_ADDED, node, 0);
+                publish(MembershipEvent.Type.NEW, node);
+            } else if (incarnation > node.getIncarnation()) {
+                // only the member itself raises its incarnation: as good as a heartbeat
+                node.updateIncarnation(incarnation);
+                node.setLastUpdatedTime();
+                if (node.hasFailed()) {
+                    reviveMember(node);
+                } else if (node.isSuspect()) {
+                    node.setFailed(false);
+                    record(JournalLevel.INFO, JournalEvent.SUSPICION_CLEARED, node, 0);
+                }
+                armDeadline(node);
+            } else {
+                return;
+            }
+        } else if (node == null || incarnation < node.getIncarnation()
+                || update.getSequenceNumber() < node.getSequenceNumber()) {
+            // nothing to suspect, or about an incarnation the member already refuted, or about
+            // a member we heard from since
+            return;
+        } else if (type == MemberUpdate.SUSPECT) {
+            node.updateIncarnation(incarnation);
+            if (!node.markSuspect(scheduler.nanoTime())) {
+                // already suspected, or failed
+                return;
+            }
+            record(JournalLevel.INFO, JournalEvent.MEMBER_SUSPECTED, node, 0);
+            timing.onMembershipChange();
+            armDeadline(node);
+        } else {
+            if (node.hasFailed()) {
+                return;
+            }
+            node.updateIncarnation(incarnation);
+            node.setFailed(true);
+            record(JournalLevel.INFO, JournalEvent.MEMBER_FAILED, node,
+                    (int) Math.min(Integer.MAX_VALUE,
+                            TimeUnit.NANOSECONDS.toMillis(scheduler.nanoTime() - node.getLastUpdatedNanos())));
+            publish(MembershipEvent.Type.FAILED, node);
+            armDeadline(node);
+        }
+        dissemination.enqueue(type, node, incarnation);
     }
 
-    private void receiveHeartbeatAndUpdateMembers() {
-        String[] message = socketService.receiveHeartbeat();
-        if (message != null) {
-            updateMembership(message); // Update membership list with the received sender node
+    // a member signed off: it is removed at once and the news passed on. Its id is buried with
+    // any sequence number, so nothing its last incarnation still says brings it back; only a
+    // newer incarnation does, when it joins again. Ids we do not know are buried all the same
+    private void memberLeft(Node node, MemberUpdate update) {
+        long incarnation = update.getIncarnation();
+        if (node == null) {
+            if (!isBuried(update.getId(), Long.MAX_VALUE, incarnation)) {
+                bury(update.getId(), update.toSocketAddress(), Long.MAX_VALUE, incarnation);
+            }
+            return;
         }
+        if (incarnation < node.getIncarnation() || !removeMember(node)) {
+            return;
+        }
+        node.updateIncarnation(incarnation);
+        bury(node.getId(), node.getSocketAddress(), Long.MAX_VALUE, incarnation);
+        record(JournalLevel.INFO, JournalEvent.MEMBER_LEFT, node, 0);
+        publish(MembershipEvent.Type.REMOVED, node);
+        dissemination.enqueue(MemberUpdate.LEFT, node, incarnation);
     }
 
-    private void updateMembership(String[] heartbeatMessage) {
-        for (String address : heartbeatMessage) {
-            Node node = createNodeFromAddress(address); // Assuming you have a method to convert the address string to a Node object
-            if (!node.equals(self) && !members.containsKey(node.getUniqueID())) {
-                members.put(node.getUniqueID(), node);
-                System.out.println("Added new member: " + node.getUniqueID());
+    // walks our members in the digest's range next to the (sorted) digest and answers with
+    // the entries the sender is missing or behind on, plus the ids we are missing or behind on
+    private void replyToDigest(HeartbeatMessage digest) {
+        HeartbeatMessage reply = replyMessage.get();
+        reply.clear();
+        reply.setType(MessageType.DIGEST_ACK);
+        reply.addEntry(self.getId(), self.getSocketAddress(), self.getSequenceNumber(), self.getZoneBytes());
+        int budget = MessageCodec.MAX_PACKET_SIZE - MessageCodec.overhead(MessageType.DIGEST_ACK)
+                - MessageCodec.sizeOf(reply.getEntry(0));
+
+        RangeBuffer local = rangeBuffer.get();
+        long rangeStart = digest.getRangeStart();
+        long rangeEnd = digest.getRangeEnd();
+        local.ensure(members.countInRange(rangeStart, rangeEnd));
+        int localCount = members.page(rangeStart, rangeEnd, local.ids.length, local.ids, local.sequences);
+        int count = digest.getDigestCount();
+        int i = 0;
+        int j = 0;
+        while ((i < localCount || j < count) && budget > 0) {
+            boolean theyLack = j == count
+                    || (i < localCount && local.ids[i] < digest.getDigestId(j));
+            boolean weLack = i == localCount
+                    || (j < count && digest.getDigestId(j) < local.ids[i]);
+            if (theyLack) {
+                budget = offerEntry(reply, members.get(local.ids[i]), true, budget);
+                i++;
+            } else if (weLack) {
+                budget = offerWanted(reply, digest.getDigestId(j), 0, budget);
+                j++;
+            } else {
+                long theirs = digest.getDigestSequence(j);
+                long ours = local.sequences[i];
+                if (ours > theirs) {
+                    budget = offerEntry(reply, members.get(local.ids[i]), false, budget);
+                } else if (ours < theirs) {
+                    budget = offerWanted(reply, local.ids[i], ours, budget);
+                }
+                i++;
+                j++;
             }
         }
+        send(digest.getSender(), reply);
     }
 
-    private Node createNodeFromAddress(String address) {
-        String[] parts = address.split(":");
-        if (parts.length != 2) {
-            // Handle invalid address format
-            return null;
+    // answers the ids a DIGEST_ACK asked for with a DELTA of the entries we have newer versions of
+    private void sendWantedEntries(HeartbeatMessage ack) {
+        HeartbeatMessage delta = replyMessage.get();
+        delta.clear();
+        delta.setType(MessageType.DELTA);
+        int budget = MessageCodec.MAX_PACKET_SIZE - MessageCodec.overhead(MessageType.DELTA);
+        for (int i = 0; i < ack.getDigestCount() && budget > 0; i++) {
+            Node node = members.get(ack.getDigestId(i));
+            if (node != null && node.getSequenceNumber() > ack.getDigestSequence(i)) {
+                // a known sequence of 0 means they have never heard of it
+                budget = offerEntry(delta, node, ack.getDigestSequence(i) == 0, budget);
+            }
+        }
+        if (delta.getEntryCount() > 0) {
+            send(ack.getSender(), delta);
         }
+    }
 
-        String host = parts[0].substring(1); // Remove leading "/"
-        int port = Integer.parseInt(parts[1]);
+    // adds the node as an entry if it fits in the remaining budget, returns the new budget
+    // (0 once something did not fit, so callers stop filling). Entries that introduce the node
+    // to the receiver also carry its zone, later ones leave it out to keep the packet small
+    private int offerEntry(HeartbeatMessage message, Node node, boolean introduce, int budget) {
+        if (node == null || node.getId() == self.getId() || node.hasFailed()) {
+            // removed meanwhile, ourselves (we already are the first entry of every reply), or
+            // failed: we do not advertise members we think are gone
+            return budget;
+        }
+        int addressLength = NodeId.isIpv4(node.getId()) ? 4 : 16;
+        byte[] zone = introduce ? node.getZoneBytes() : null;
+        int size = MessageCodec.entrySize(addressLength, node.getPort(), node.getSequenceNumber(),
+                zone == null ? 0 : zone.length);
+        if (size > budget) {
+            return 0;
+        }
+        message.addEntry(node.getId(), node.getSocketAddress(), node.getSequenceNumber(), zone);
+        return budget - size;
+    }
 
-        // Create and return a new Node object
-        return new Node(host, port, self.getConfig());
+    private int offerWanted(HeartbeatMessage message, long id, long knownSequence, int budget) {
+        if (id == self.getId()) {
+            return budget;
+        }
+        int size = MessageCodec.digestSize(id, knownSequence);
+        if (size > budget) {
+            return 0;
+        }
+        message.addDigest(id, knownSequence);
+        return budget - size;
     }
 
     /*
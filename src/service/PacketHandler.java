@@ -0,0 +1,9 @@
+package service;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+public interface PacketHandler {
+    // the packet is between position and limit and only valid until the method returns
+    void onPacket(InetSocketAddress sender, ByteBuffer packet);
+}
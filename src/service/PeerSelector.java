@@ -0,0 +1,156 @@
+package service;
+
+import node.MemberTable;
+import node.Node;
+
+import java.util.List;
+import java.util.Random;
+
+// picks the gossip targets for a round by shuffled round robin
+// each cycle visits every member exactly once in a fresh random order, so with k peers per round
+// every member is reached within ceil(n / k) rounds, while the choice still looks random to the
+// cluster (which is what gives O(log n) dissemination). Members that join mid cycle are inserted
+// at a random position of the part of the cycle that has not been visited yet
+//
+// once we know our zone, members of other zones get a cycle of their own and every target is
+// taken from it only with crossZoneProbability, from our own zone otherwise. Each zone then
+// gossips mostly with itself while some exchanges still cross over, enough to carry every
+// change to the other zones within a few rounds. Members whose zone we do not know yet count as
+// our own, so zone awareness never leaves anybody out
+public class PeerSelector {
+    private final MemberTable members;
+    private final long selfId;
+    private final Random random;
+
+    private final Cycle near = new Cycle(true);
+    private final Cycle far = new Cycle(false);
+    // null: no zones, everybody is near
+    private String zone = null;
+    private double crossZoneProbability = 1;
+
+    public PeerSelector(MemberTable members, long selfId, Random random) {
+        this.members = members;
+        this.selfId = selfId;
+        this.random = random;
+    }
+
+    // prefer members of the given zone, the next cycles sort the members into near and far
+    public synchronized void setZone(String zone, double crossZoneProbability) {
+        this.zone = zone;
+        this.crossZoneProbability = crossZoneProbability;
+        // start over, the current cycles were drawn without zones
+        near.clear();
+        far.clear();
+    }
+
+    private boolean isNear(Node node) {
+        String theirs = node.getZone();
+        return zone == null || theirs == null || zone.equals(theirs);
+    }
+
+    public synchronized void add(Node node) {
+        if (node.getId() == selfId) {
+            return;
+        }
+        (isNear(node) ? near : far).add(node);
+    }
+
+    // fills into with up to count distinct live members, never ourselves
+    // with zones, every target is a far one with crossZoneProbability, and if one side runs
+    // out of members the other one makes up for it
+    public synchronized void next(int count, List<Node> into) {
+        into.clear();
+        if (zone == null) {
+            near.take(count, into);
+            return;
+        }
+        int crossing = 0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < crossZoneProbability) {
+                crossing++;
+            }
+        }
+        far.take(crossing, into);
+        near.take(count, into);
+        far.take(count, into);
+    }
+
+    // the members on one side of the zone boundary, in the order we visit them
+    private class Cycle {
+        private final boolean holdsNear;
+        private Node[] nodes = new Node[16];
+        private int length = 0;
+        private int position = 0;
+
+        Cycle(boolean holdsNear) {
+            this.holdsNear = holdsNear;
+        }
+
+        void clear() {
+            for (int i = 0; i < length; i++) {
+                nodes[i] = null;
+            }
+            length = 0;
+            position = 0;
+        }
+
+        void add(Node node) {
+            if (length == nodes.length) {
+                Node[] grown = new Node[nodes.length * 2];
+                System.arraycopy(nodes, 0, grown, 0, length);
+                nodes = grown;
+            }
+            // anywhere in [position, length], the visited part stays visited
+            int slot = position + random.nextInt(length - position + 1);
+            nodes[length++] = nodes[slot];
+            nodes[slot] = node;
+        }
+
+        // adds members to into until it holds count of them, or this side has no more
+        void take(int count, List<Node> into) {
+            // one pass over what is left of this cycle plus one full fresh cycle is enough to see
+            // every member, so stop there even if there are fewer members than count
+            int budget = (length - position) + members.size();
+            while (into.size() < count && budget-- > 0) {
+                if (position == length && !reshuffle()) {
+                    return;
+                }
+                Node candidate = nodes[position];
+                nodes[position++] = null;
+                // removed members are dropped lazily when their turn comes, and so are members
+                // whose zone we learned meanwhile, the other cycle picks them up on its next round
+                if (members.contains(candidate) && isNear(candidate) == holdsNear
+                        && !into.contains(candidate)) {
+                    into.add(candidate);
+                }
+            }
+        }
+
+        // starts a new cycle over the current members, returns false if there is nobody to talk to
+        // the members are copied straight into the cycle array, which only grows with the cluster
+        private boolean reshuffle() {
+            int count;
+            while ((count = members.copyTo(nodes)) < 0) {
+                nodes = new Node[Integer.highestOneBit(members.size()) * 2];
+            }
+            length = 0;
+            position = 0;
+            for (int i = 0; i < count; i++) {
+                if (nodes[i].getId() != selfId && isNear(nodes[i]) == holdsNear) {
+                    nodes[length++] = nodes[i];
+                }
+            }
+            // the copy above may have left ourselves and the other side behind the end of the cycle
+            for (int i = length; i < count; i++) {
+                nodes[i] = null;
+            }
+            for (int i = length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Node swap = nodes[i];
+                nodes[i] = nodes[j];
+                nodes[j] = swap;
+            }
+            return length > 0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// where the seed list for NodeManager.addSeeds comes from: a configuration string, a file, or
+// every address a name resolves to (a DNS name with one record per node, an /etc/hosts entry)
+// including ourselves does no harm, a node never uses its own address as a seed
+public final class Seeds {
+    private Seeds() {
+    }
+
+    // "host:port, host:port, [v6 address]:port", seeds that do not resolve are left out
+    public static List<InetSocketAddress> parse(String list) {
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (String seed : list.split("[,\\s]+")) {
+            if (!seed.isEmpty()) {
+                add(seeds, seed);
+            }
+        }
+        return seeds;
+    }
+
+    // one seed per line in the same format, blank lines and lines starting with # are skipped
+    public static List<InetSocketAddress> read(Path file) throws IOException {
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                add(seeds, line);
+            }
+        }
+        return seeds;
+    }
+
+    // every address of the name, all on the same port
+    public static List<InetSocketAddress> resolve(String host, int port) throws UnknownHostException {
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            seeds.add(new InetSocketAddress(address, port));
+        }
+        return seeds;
+    }
+
+    private static void add(List<InetSocketAddress> seeds, String seed) {
+        int colon = seed.lastIndexOf(':');
+        if (colon <= 0 || colon == seed.length() - 1) {
+            throw new IllegalArgumentException("Seeds are host:port, got " + seed);
+        }
+        String host = seed.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(seed.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Seeds are host:port, got " + seed);
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            System.out.println("Could not resolve seed " + seed + ", leaving it out");
+            return;
+        }
+        seeds.add(address);
+    }
+}
@@ -1,19 +1,46 @@
 package service;
 
-import node.Node;
+import timer.ThreadMode;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
-public class Socket implements Serializable {
+// the original blocking transport: one DatagramSocket and one receiver thread
+// kept for platforms where the NIO transport misbehaves, see NioTransport for the default.
+// A blocking receive parks a virtual thread without holding its carrier, so this is also the
+// transport for nodes on ThreadMode.VIRTUAL
+public class Socket implements Transport {
     private DatagramSocket dgSocket;
-    private byte[] receivedBuffer = new byte[1024];
-    private DatagramPacket receivePacket =
-            new DatagramPacket(receivedBuffer, receivedBuffer.length);
+    private byte[] receivedBuffer;
+    private DatagramPacket receivePacket;
+    private ByteBuffer receiveView;
 
-    public Socket(int portToListen) {
+    // sends are serialized on this object so the packet and its buffer can be reused
+    private final byte[] sendBuffer;
+    private final DatagramPacket sendPacket;
+
+    private final ThreadMode threadMode;
+    private volatile boolean stopped = false;
+
+    public Socket(int portToListen, int bufferSize) {
+        this(portToListen, bufferSize, ThreadMode.PLATFORM);
+    }
+
+    // the receiver runs on a thread of the given mode
+    public Socket(int portToListen, int bufferSize, ThreadMode threadMode) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Need a receive buffer of at least one byte, got " + bufferSize);
+        }
+        this.threadMode = threadMode;
+        receivedBuffer = new byte[bufferSize];
+        receivePacket = new DatagramPacket(receivedBuffer, receivedBuffer.length);
+        receiveView = ByteBuffer.wrap(receivedBuffer);
+        sendBuffer = new byte[bufferSize];
+        sendPacket = new DatagramPacket(sendBuffer, sendBuffer.length);
         try {
             dgSocket = new DatagramSocket(portToListen);
         } catch (SocketException e) {
@@ -22,140 +49,78 @@ public class Socket implements Serializable {
         }
     }
 
-    // handles the sending of a gossip message
-    // target = the node we want to send to
-    // source = the node that we want to get the message from
-    // from a driver code perspective, "source" will be the node itself(self)
-    public void sendGossip(Node target, Node source) {
-        byte[] bytes = getBytesToWrite(source);
-        // sendGossipMessage(target, bytes);
-    }
-
-    private void sendGossipMessage(Node target, byte[] data) {
-        DatagramPacket packet = new DatagramPacket(data, data.length, target.getInetAddress(),
-                target.getPort());
-        System.out.println(packet.getLength());
-        // DatagramPacket packet = new DatagramPacket(data, data.length);
+    // SO_RCVBUF, see NioTransport.setSocketReceiveBufferSize
+    @Override
+    public void setSocketReceiveBufferSize(int bytes) {
         try {
-            System.out.println("Sending gossip message to [" + target.getUniqueID() + "]");
-            dgSocket.send(packet);
-        } catch (IOException e) {
-            System.out.println("[Could not send packet " + packet + " to " + target.getSocketAddress() + "]");
-            e.printStackTrace();
+            dgSocket.setReceiveBufferSize(bytes);
+        } catch (SocketException e) {
+            System.out.println("Could not set the receive buffer of port " + dgSocket.getLocalPort());
         }
     }
 
-    // receive gossip message
-    public Node receiveMessage() {
+    @Override
+    public int getSocketReceiveBufferSize() {
         try {
-            dgSocket.receive(receivePacket);
-            ObjectInputStream objectInputStream =
-                    new ObjectInputStream(new ByteArrayInputStream(receivePacket.getData()));
-            Node source = null;
-            try {
-                source = (Node) objectInputStream.readObject();
-                System.out.println("Received message from [" + source.getUniqueID() + "]");
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                objectInputStream.close();
-                return source;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            return dgSocket.getReceiveBufferSize();
+        } catch (SocketException e) {
+            return 0;
         }
-        return null;
     }
 
-    // old version: for sending out just a node
-    private byte[] getBytesToWrite(Node source) {
-        ByteArrayOutputStream bstream = new ByteArrayOutputStream();
-        System.out.println("Writing message " + source.getNetworkMessage());
-        // Object data = memberlist + source
-        try {
-            ObjectOutput out = new ObjectOutputStream(bstream);
-            out.writeObject(source);
-            // out.writeObject(data);
-            out.close();
-        } catch (IOException e) {
-            System.out.println("Could not send " + source.getNetworkMessage() + "\n");
-            System.out.println("Error: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        return bstream.toByteArray();
-
+    @Override
+    public void start(PacketHandler handler) {
+        threadMode.start("gossip-socket-" + dgSocket.getLocalPort(), true, () -> {
+            while (!stopped) {
+                receiveHeartbeat(handler);
+            }
+        });
     }
 
-    // new version: to send out HeartbeatMessage that contains node AND membership list
-    private byte[] getBytesToWrite(String[] list) {
-        ByteArrayOutputStream bstream = new ByteArrayOutputStream();
+    @Override
+    public synchronized void send(InetSocketAddress target, ByteBuffer packet) {
+        int length = packet.remaining();
+        if (length > sendBuffer.length) {
+            System.out.println("[Packet of " + length + " bytes to " + target + " is too large]");
+            return;
+        }
+        packet.duplicate().get(sendBuffer, 0, length);
+        sendPacket.setData(sendBuffer, 0, length);
+        sendPacket.setSocketAddress(target);
         try {
-            ObjectOutputStream out = new ObjectOutputStream(bstream);
-            out.writeObject(list);
-            out.close();
+            dgSocket.send(sendPacket);
         } catch (IOException e) {
-            System.out.println("Could not send heartbeat message");
-            e.printStackTrace();
+            if (!stopped) {
+                System.out.println("[Could not send packet to " + target + "]");
+                e.printStackTrace();
+            }
         }
-        // System.out.println(bstream.toByteArray());
-        return bstream.toByteArray();
     }
 
-
-    public void sendHeartbeat(Node target, String[] list) {
-        byte[] bytes = getBytesToWrite(list);
-        sendGossipMessage(target, bytes);
-    }
-
-    /*
-    public Node receiveHeartbeat() {
+    // blocks until a packet arrives and hands it to the handler
+    private void receiveHeartbeat(PacketHandler handler) {
         try {
+            receivePacket.setData(receivedBuffer, 0, receivedBuffer.length);
             dgSocket.receive(receivePacket);
-            ObjectInputStream objectInputStream =
-                    new ObjectInputStream(new ByteArrayInputStream(receivePacket.getData()));
-            Node sender = null;
-
-            try {
-                sender = (Node) objectInputStream.readObject(); // Deserialize the sender node
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } catch (Exception e) {
+        } catch (IOException e) {
+            if (!stopped) {
                 e.printStackTrace();
-            } finally {
-                objectInputStream.close();
-                return sender;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            return;
         }
-        return null;
-    }
-     */
-    public String[] receiveHeartbeat() {
+        receiveView.clear();
+        receiveView.limit(receivePacket.getLength());
         try {
-
-            dgSocket.receive(receivePacket);
-            byte[] data = receivePacket.getData();
-            // System.out.println(Arrays.toString(data));
-            ObjectInputStream objectInputStream =
-                    new ObjectInputStream(new ByteArrayInputStream(receivePacket.getData()));
-            String[] heartbeatMessage;
-            try {
-                heartbeatMessage = (String[]) objectInputStream.readObject();
-                System.out.println("Heartbeat message received");
-                return heartbeatMessage;
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } finally {
-                objectInputStream.close();
-            }
-        } catch (IOException e) {
+            handler.onPacket((InetSocketAddress) receivePacket.getSocketAddress(), receiveView);
+        } catch (RuntimeException e) {
             e.printStackTrace();
         }
-        return null;
     }
-}
 
+    @Override
+    public void close() {
+        stopped = true;
+        // unblocks the receiver thread
+        dgSocket.close();
+    }
+}
@@ -0,0 +1,292 @@
+package service;
+
+import message.HeartbeatMessage;
+import message.MessageCodec;
+import message.MessageType;
+import node.Node;
+import node.NodeId;
+import timer.ExecutorScheduler;
+import timer.Scheduler;
+import timer.Timeout;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// full membership exchange over TCP, for state that does not fit in a datagram
+// a push-pull: the connecting node streams all of its members, the other side merges them and
+// streams all of its own back. It runs when a node joins and then every interval with one random
+// member, so a node that is new (or was cut off) catches up in one exchange instead of one digest
+// page per round. Gossip itself stays on UDP
+//
+// stream format, the same in both directions:
+//   frames      length 4 bytes (big endian, at most MAX_FRAME_SIZE), then a DELTA message
+//               encoded by MessageCodec: entries with their zones, as many as fit in the frame
+//   end         a frame of length 0
+//
+// frames are encoded straight into a direct buffer and written together with their length in
+// one gathering write, so nothing is copied on the way to the socket
+public class StateTransfer {
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+    // one exchange may take this long before the watchdog closes the connection
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // accepted connections waiting for the worker, more are closed right away
+    private static final int MAX_PENDING = 16;
+
+    private final NodeManager node;
+    private final InetSocketAddress bindAddress;
+    // runs the exchanges, one at a time, so the buffers below need no locking
+    private final Scheduler worker;
+    // only closes connections that are taking too long, never blocks
+    private final Scheduler watchdog;
+    private final AtomicInteger pending = new AtomicInteger();
+    private ServerSocketChannel server;
+    private volatile SocketChannel current;
+    private volatile boolean closed = false;
+
+    // only touched by the worker
+    private final ByteBuffer length = ByteBuffer.allocateDirect(4);
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(MAX_FRAME_SIZE);
+    private final ByteBuffer[] outgoing = {length, frame};
+    private final HeartbeatMessage message = new HeartbeatMessage();
+    // the watchdog's timeout for the current exchange, called off when it ends
+    private Timeout timeout = Timeout.NONE;
+
+    StateTransfer(NodeManager node, InetSocketAddress bindAddress, Scheduler watchdog) {
+        this.node = node;
+        this.bindAddress = bindAddress;
+        this.watchdog = watchdog;
+        this.worker = new ExecutorScheduler("gossip-sync-" + bindAddress.getPort(), true);
+    }
+
+    // listens on the TCP port with the number of the node's UDP port, then syncs with a random
+    // member every interval (never if zero). The first sync is the join's, see pull()
+    void start(long intervalNanos, Random random) {
+        try {
+            server = ServerSocketChannel.open();
+            // every interface, like the UDP transports
+            server.bind(new InetSocketAddress(bindAddress.getPort()));
+        } catch (IOException e) {
+            System.out.println("Could not listen for state transfers on " + bindAddress);
+            e.printStackTrace();
+            return;
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "gossip-sync-accept-" + bindAddress.getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        if (intervalNanos > 0) {
+            worker.scheduleWithJitter(() -> {
+                Node peer = node.randomPeer();
+                if (peer != null) {
+                    exchange(peer.getSocketAddress());
+                }
+            }, intervalNanos, intervalNanos, intervalNanos / 10, random);
+        }
+    }
+
+    // one exchange with the seed that answered our join, as soon as the worker is free
+    void pull(InetSocketAddress seed) {
+        worker.schedule(() -> exchange(seed), 0);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+            if (closed || pending.incrementAndGet() > MAX_PENDING) {
+                pending.decrementAndGet();
+                closeQuietly(channel);
+                continue;
+            }
+            worker.schedule(() -> {
+                pending.decrementAndGet();
+                serve(channel);
+            }, 0);
+        }
+    }
+
+    // the accepting side: their state first, then ours
+    private void serve(SocketChannel channel) {
+        begin(channel);
+        try {
+            long received = readState(channel, null);
+            long sent = writeState(channel);
+            node.getMetrics().stateTransferred(sent + received);
+        } catch (IOException e) {
+            node.getMetrics().stateTransferFailed();
+        } finally {
+            end(channel);
+        }
+    }
+
+    // the connecting side: our state first, then theirs. Returns whether it went through
+    boolean exchange(InetSocketAddress target) {
+        if (closed) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+        } catch (IOException e) {
+            node.getMetrics().stateTransferFailed();
+            return false;
+        }
+        begin(channel);
+        try {
+            // the watchdog also gives up on a connect that hangs
+            channel.connect(target);
+            long sent = writeState(channel);
+            long received = readState(channel, target);
+            node.getMetrics().stateTransferred(sent + received);
+            return true;
+        } catch (IOException e) {
+            node.getMetrics().stateTransferFailed();
+            return false;
+        } finally {
+            end(channel);
+        }
+    }
+
+    private void begin(SocketChannel channel) {
+        current = channel;
+        timeout = watchdog.scheduleTimeout(() -> closeQuietly(channel), TIMEOUT_NANOS);
+    }
+
+    private void end(SocketChannel channel) {
+        timeout.cancel();
+        timeout = Timeout.NONE;
+        current = null;
+        closeQuietly(channel);
+    }
+
+    // every member we know, ourselves included, as many frames as it takes plus the end frame
+    // failed members are left out like in gossip, the receiver would add them as alive
+    private long writeState(SocketChannel channel) throws IOException {
+        long written = 0;
+        resetFrame();
+        int budget = MAX_FRAME_SIZE - MessageCodec.overhead(MessageType.DELTA);
+        for (Node member : node.memberArray()) {
+            if (member.hasFailed()) {
+                continue;
+            }
+            // the receiver may not know any of them, so every entry carries its zone
+            byte[] zone = member.getZoneBytes();
+            int size = MessageCodec.entrySize(NodeId.isIpv4(member.getId()) ? 4 : 16,
+                    member.getPort(), member.getSequenceNumber(), zone == null ? 0 : zone.length);
+            if (size > budget) {
+                written += writeFrame(channel);
+                resetFrame();
+                budget = MAX_FRAME_SIZE - MessageCodec.overhead(MessageType.DELTA);
+            }
+            message.addEntry(member.getId(), member.getSocketAddress(), member.getSequenceNumber(), zone);
+            budget -= size;
+        }
+        if (message.getEntryCount() > 0) {
+            written += writeFrame(channel);
+        }
+        length.clear();
+        length.putInt(0);
+        length.flip();
+        writeFully(channel, length);
+        return written + 4;
+    }
+
+    private void resetFrame() {
+        message.clear();
+        message.setType(MessageType.DELTA);
+    }
+
+    private long writeFrame(SocketChannel channel) throws IOException {
+        frame.clear();
+        // frames only hold entries, the oldest version with a DELTA keeps older builds reading them
+        MessageCodec.encode(message, MessageType.minVersion(MessageType.DELTA), frame);
+        frame.flip();
+        length.clear();
+        length.putInt(frame.remaining());
+        length.flip();
+        long size = length.remaining() + frame.remaining();
+        while (frame.hasRemaining()) {
+            channel.write(outgoing);
+        }
+        return size;
+    }
+
+    // merges every frame up to the end frame, from is the peer's gossip address if we know it
+    private long readState(SocketChannel channel, InetSocketAddress from) throws IOException {
+        long read = 0;
+        while (true) {
+            length.clear();
+            readFully(channel, length);
+            int size = length.flip().getInt();
+            read += 4;
+            if (size == 0) {
+                return read;
+            }
+            if (size < 0 || size > MAX_FRAME_SIZE) {
+                throw new IOException("State frame of " + size + " bytes");
+            }
+            frame.clear();
+            frame.limit(size);
+            readFully(channel, frame);
+            frame.flip();
+            if (!MessageCodec.decode(frame, message) || message.getType() != MessageType.DELTA) {
+                node.getMetrics().decodeFailed();
+                throw new IOException("Not a state frame");
+            }
+            node.mergeState(message, from);
+            read += size;
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    void close() {
+        closed = true;
+        worker.shutdown();
+        SocketChannel channel = current;
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package service;
+
+import message.HeartbeatMessage;
+import message.MemberEntry;
+import message.MessageType;
+import node.MemberTable;
+import node.Node;
+import timer.Scheduler;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// SWIM style failure detection (Das, Gupta, Motivala)
+// every protocol period we ping one member, picked by shuffled round robin. If it does not ack
+// within probeTimeout we ask indirectProbes other members to ping it for us (PING_REQ) and relay
+// the ack. Only if nobody got an answer by the end of the period is the member suspected.
+// One probe per period per node keeps the load constant whatever the cluster size, and the
+// indirect path stops a single lossy link from getting a healthy member declared dead.
+// The probe timeout and the rest of the period stretch with our local health, and a timeout that
+// fired long after it was due gets one more probe timeout: the acks may be waiting in our receive
+// queue, and the pause was ours, not the target's
+class SwimProber {
+    private final NodeManager manager;
+    private final MemberTable members;
+    private final PeerSelector selector;
+    private final Scheduler timer;
+    private final Random random;
+    private final LocalHealth health;
+
+    private final long periodNanos;
+    private final long probeTimeoutNanos;
+    private final int indirectProbes;
+
+    private final AtomicLong nextProbeId = new AtomicLong(1);
+    // probes we started, by probe id
+    private final ConcurrentHashMap<Long, Node> pending = new ConcurrentHashMap<>();
+    // pings we sent on behalf of a PING_REQ, by the probe id of our ping
+    private final ConcurrentHashMap<Long, Relay> relayed = new ConcurrentHashMap<>();
+    // pings sent by NodeManager.leave, by probe id, and the members that acked one
+    private final ConcurrentHashMap<Long, InetSocketAddress> farewells = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> farewellAcks = new HashSet<>();
+
+    // targets of one round, only touched on the timer thread
+    private final List<Node> picked = new ArrayList<>();
+    // probes sent from the timer thread reuse one message, the rest (acks relayed on the receive
+    // loops, farewells from the caller of leave) one per thread
+    private final HeartbeatMessage outgoing = new HeartbeatMessage();
+    private final ThreadLocal<HeartbeatMessage> outgoingOffTimer = ThreadLocal.withInitial(HeartbeatMessage::new);
+
+    private static class Relay {
+        final InetSocketAddress origin;
+        final long originProbeId;
+
+        Relay(InetSocketAddress origin, long originProbeId) {
+            this.origin = origin;
+            this.originProbeId = originProbeId;
+        }
+    }
+
+    SwimProber(NodeManager manager, MemberTable members, PeerSelector selector,
+               Scheduler timer, Random random, LocalHealth health,
+               long periodNanos, long probeTimeoutNanos, int indirectProbes) {
+        this.manager = manager;
+        this.members = members;
+        this.selector = selector;
+        this.timer = timer;
+        this.random = random;
+        this.health = health;
+        this.periodNanos = periodNanos;
+        this.probeTimeoutNanos = probeTimeoutNanos;
+        this.indirectProbes = indirectProbes;
+    }
+
+    // one protocol period: ping the next member
+    // members that do not speak a wire version with probes yet are left to the heartbeat
+    // failure detector, so we move on to the next one
+    void probeRound() {
+        Node target = null;
+        for (int attempts = members.size(); attempts > 0 && target == null; attempts--) {
+            selector.next(1, picked);
+            if (picked.isEmpty()) {
+                return;
+            }
+            if (manager.canProbe(picked.get(0))) {
+                target = picked.get(0);
+            }
+        }
+        if (target == null) {
+            return;
+        }
+        long probeId = nextProbeId.getAndIncrement();
+        pending.put(probeId, target);
+        sendProbe(MessageType.PING, probeId, manager.getSelf(), target.getSocketAddress());
+        timer.schedule(() -> afterDirectTimeout(probeId), health.stretch(probeTimeoutNanos));
+    }
+
+    private void afterDirectTimeout(long probeId) {
+        Node target = pending.get(probeId);
+        if (target == null) {
+            // acked in time
+            return;
+        }
+        for (Node helper : pickHelpers(target)) {
+            sendProbe(MessageType.PING_REQ, probeId, target, helper.getSocketAddress());
+        }
+        long remaining = health.stretch(Math.max(periodNanos - probeTimeoutNanos, probeTimeoutNanos));
+        long due = timer.nanoTime() + remaining;
+        timer.schedule(() -> afterIndirectTimeout(probeId, due, true), remaining);
+    }
+
+    private void afterIndirectTimeout(long probeId, long due, boolean mayWait) {
+        long late = timer.nanoTime() - due;
+        if (mayWait && late > probeTimeoutNanos && pending.containsKey(probeId)) {
+            health.onTimer(late, periodNanos);
+            long timeout = health.stretch(probeTimeoutNanos);
+            timer.schedule(() -> afterIndirectTimeout(probeId, due + late + timeout, false), timeout);
+            return;
+        }
+        Node target = pending.remove(probeId);
+        if (target != null) {
+            manager.onProbeFailed(target);
+        }
+    }
+
+    // up to indirectProbes random members that are neither us nor the target
+    // only runs when a direct probe failed, so an O(n) reservoir sample is fine
+    private List<Node> pickHelpers(Node target) {
+        List<Node> helpers = new ArrayList<>(indirectProbes);
+        int seen = 0;
+        long selfId = manager.getSelf().getId();
+        for (Node node : members.toArray()) {
+            if (node.getId() == selfId || node.getId() == target.getId() || node.hasFailed()
+                    || !manager.canProbe(node)) {
+                continue;
+            }
+            seen++;
+            if (helpers.size() < indirectProbes) {
+                helpers.add(node);
+            } else {
+                int slot = random.nextInt(seen);
+                if (slot < indirectProbes) {
+                    helpers.set(slot, node);
+                }
+            }
+        }
+        return helpers;
+    }
+
+    // called on a receive loop for PING, PING_REQ and ACK
+    void onProbeMessage(HeartbeatMessage message) {
+        if (message.getEntryCount() == 0) {
+            return;
+        }
+        switch (message.getType()) {
+            case MessageType.PING:
+                manager.sendProbeReply(MessageType.ACK, message.getProbeId(), message.getSender());
+                break;
+            case MessageType.PING_REQ:
+                relay(message);
+                break;
+            case MessageType.ACK:
+                onAck(message);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void relay(HeartbeatMessage request) {
+        MemberEntry target = request.getEntry(0);
+        InetSocketAddress address = target.toSocketAddress();
+        if (!manager.canProbe(address)) {
+            // one we cannot ping: too old, never heard from, or forgotten since it was removed
+            return;
+        }
+        long probeId = nextProbeId.getAndIncrement();
+        relayed.put(probeId, new Relay(request.getSender(), request.getProbeId()));
+        manager.sendProbeReply(MessageType.PING, probeId, address);
+        // forget the relay if the target never answers
+        timer.schedule(() -> relayed.remove(probeId), periodNanos);
+    }
+
+    private void onAck(HeartbeatMessage ack) {
+        Node target = pending.remove(ack.getProbeId());
+        if (target != null) {
+            manager.onProbeAcked(target);
+            return;
+        }
+        InetSocketAddress farewell = farewells.remove(ack.getProbeId());
+        if (farewell != null) {
+            synchronized (farewellAcks) {
+                farewellAcks.add(farewell);
+                farewellAcks.notifyAll();
+            }
+            return;
+        }
+        Relay relay = relayed.remove(ack.getProbeId());
+        if (relay != null) {
+            // pass the target's own entry back to whoever asked
+            HeartbeatMessage forward = outgoingOffTimer.get();
+            forward.clear();
+            forward.setType(MessageType.ACK);
+            forward.setProbeId(relay.originProbeId);
+            forward.addEntry().set(ack.getEntry(0));
+            manager.send(relay.origin, forward);
+        }
+    }
+
+    // pings the targets from the caller's thread: they ack as usual, and the packets carry
+    // whatever updates are pending, our LEFT first
+    void sendFarewells(List<Node> targets) {
+        HeartbeatMessage farewell = outgoingOffTimer.get();
+        Node self = manager.getSelf();
+        for (Node target : targets) {
+            long probeId = nextProbeId.getAndIncrement();
+            farewells.put(probeId, target.getSocketAddress());
+            sendProbe(farewell, MessageType.PING, probeId, self, target.getSocketAddress());
+        }
+    }
+
+    boolean hasAckedFarewell(InetSocketAddress member) {
+        synchronized (farewellAcks) {
+            return farewellAcks.contains(member);
+        }
+    }
+
+    // blocks the caller until wanted members acked a farewell, false if that took longer than
+    // the timeout on the scheduler's clock, like leave() measures its own. The caller must not be
+    // the thread that runs the scheduler: with virtual time, the clock would never get there
+    boolean awaitFarewellAcks(int wanted, long timeoutNanos) throws InterruptedException {
+        long deadline = timer.nanoTime() + timeoutNanos;
+        synchronized (farewellAcks) {
+            while (farewellAcks.size() < wanted) {
+                long remaining = deadline - timer.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(farewellAcks, remaining);
+            }
+            return true;
+        }
+    }
+
+    private void sendProbe(byte type, long probeId, Node about, InetSocketAddress to) {
+        sendProbe(outgoing, type, probeId, about, to);
+    }
+
+    private void sendProbe(HeartbeatMessage message, byte type, long probeId, Node about, InetSocketAddress to) {
+        message.clear();
+        message.setType(type);
+        message.setProbeId(probeId);
+        message.addEntry(about.getId(), about.getSocketAddress(), about.getSequenceNumber(), about.getZoneBytes());
+        manager.send(to, message);
+    }
+}
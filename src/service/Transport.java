@@ -0,0 +1,28 @@
+package service;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+// how a NodeManager moves datagrams, so the protocol does not care whether packets go through a
+// blocking DatagramSocket, a selector loop or an in-memory network
+public interface Transport {
+    // starts receiving, every packet is handed to the handler on one of the transport's threads
+    void start(PacketHandler handler);
+
+    // sends the bytes between the buffer's position and limit. Never blocks for long: a packet
+    // that cannot be sent right away is dropped, like UDP would. The buffer can be reused as soon
+    // as the call returns
+    void send(InetSocketAddress target, ByteBuffer packet);
+
+    // stops receiving and releases the socket(s), safe to call more than once
+    void close();
+
+    // SO_RCVBUF of the socket(s), see NioTransport; transports without a socket ignore it
+    default void setSocketReceiveBufferSize(int bytes) {
+    }
+
+    // what the kernel granted, 0 without a socket
+    default int getSocketReceiveBufferSize() {
+        return 0;
+    }
+}
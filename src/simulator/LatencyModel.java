@@ -0,0 +1,27 @@
+package simulator;
+
+import java.time.Duration;
+import java.util.Random;
+
+// one way delay of a simulated packet, drawn from the network's seeded random
+public interface LatencyModel {
+    long sampleNanos(Random random);
+
+    static LatencyModel fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static LatencyModel uniform(Duration min, Duration max) {
+        long low = min.toNanos();
+        long spread = max.toNanos() - low;
+        return random -> low + (long) (random.nextDouble() * spread);
+    }
+
+    // long tailed, as real networks are: half the packets are faster than the median, and sigma
+    // controls how far the slow ones stray (0.5 puts the 99th percentile at about 3x the median)
+    static LatencyModel logNormal(Duration median, double sigma) {
+        double mu = Math.log(median.toNanos());
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+}
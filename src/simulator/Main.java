@@ -0,0 +1,143 @@
+package simulator;
+
+import config.Config;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// runs a scenario on a simulated cluster and prints what happened:
+// join, crash a few nodes, partition the cluster, heal it. Same arguments, same output
+//
+// java simulator.Main [nodes] [seed] [loss] [crashes] [probing] [failure timeout seconds] [zones]
+//                     [adaptive]
+// e.g. java simulator.Main 1000 42 0.01 10 true 30 3 false
+// with zones, node i runs in zone i % zones and the traffic report shows the cross zone share
+// the failure timeout has to grow with the cluster: a heartbeat needs more rounds to reach
+// everybody, and below that the detectors start flagging healthy members. With adaptive timing
+// the nodes do that themselves, the failure timeout given here is then the one for 10 nodes
+public class Main {
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        double loss = args.length > 2 ? Double.parseDouble(args[2]) : 0.0;
+        int crashes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        boolean probing = args.length > 4 && Boolean.parseBoolean(args[4]);
+        int failureTimeout = args.length > 5 ? Integer.parseInt(args[5]) : 30;
+        int zones = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+        boolean adaptive = args.length > 7 && Boolean.parseBoolean(args[7]);
+
+        Config config = new Config(
+                Duration.ofSeconds(failureTimeout),
+                Duration.ofSeconds(failureTimeout),
+                Duration.ofMillis(500),
+                Duration.ofMillis(1000),
+                3
+        );
+        Duration interval = config.updateFrequency;
+
+        // the nodes still report on stdout, keep that out of the report
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // nodes are set up in index order
+        int[] next = {0};
+        Simulation simulation = new Simulation(nodeCount, config, seed, node -> {
+            if (probing) {
+                node.enableProbing();
+            }
+            if (zones > 0) {
+                node.setZone("zone-" + next[0] % zones);
+            }
+            if (adaptive) {
+                node.enableAdaptiveTiming();
+            }
+            next[0]++;
+        });
+        SimulatedNetwork network = simulation.getNetwork();
+        network.setLossRate(loss);
+        network.setLatency(LatencyModel.logNormal(Duration.ofMillis(2), 0.5));
+
+        out.println("nodes " + nodeCount + ", seed " + seed + ", loss " + loss
+                + ", probing " + probing + ", failure timeout " + failureTimeout + " s"
+                + (zones > 0 ? ", zones " + zones : "") + (adaptive ? ", adaptive timing" : ""));
+        Duration limit = Duration.ofMinutes(3);
+
+        long started = System.nanoTime();
+        simulation.start();
+        Duration joined = simulation.runUntilConverged(limit);
+        out.println("join converged after " + describe(joined, simulation));
+
+        // steady state traffic
+        long packets = network.getPacketsSent();
+        long bytes = network.getBytesSent();
+        long crossZoneBytes = crossZoneBytesSent(simulation);
+        Duration window = Duration.ofSeconds(30);
+        simulation.runFor(window);
+        double rounds = (double) window.toNanos() / interval.toNanos();
+        double perNodeRound = nodeCount * rounds;
+        out.printf("per node per round: %.2f messages, %.0f bytes%n",
+                (network.getPacketsSent() - packets) / perNodeRound,
+                (network.getBytesSent() - bytes) / perNodeRound);
+        if (zones > 0) {
+            long crossed = crossZoneBytesSent(simulation) - crossZoneBytes;
+            out.printf("cross zone: %.0f bytes per node per round, %.1f%% of all bytes%n",
+                    crossed / perNodeRound, 100.0 * crossed / (network.getBytesSent() - bytes));
+        }
+
+        simulation.crashRandom(crashes);
+        Duration detected = simulation.runUntilConverged(limit);
+        out.println(crashes + " crashes detected by everyone after " + describe(detected, simulation));
+        List<Long> latencies = new ArrayList<>(simulation.getDetectionLatencies());
+        if (!latencies.isEmpty()) {
+            Collections.sort(latencies);
+            long sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            out.printf("detection latency: mean %d ms, p99 %d ms, max %d ms over %d observations%n",
+                    sum / latencies.size() / 1_000_000,
+                    latencies.get((int) (latencies.size() * 0.99)) / 1_000_000,
+                    latencies.get(latencies.size() - 1) / 1_000_000,
+                    latencies.size());
+        }
+
+        simulation.partition(nodeCount / 2);
+        simulation.runFor(config.nodeFailureTimeout.plus(config.nodeCleanupTimeout.dividedBy(2)));
+        simulation.heal();
+        Duration healed = simulation.runUntilConverged(limit);
+        out.println("partition healed, converged after " + describe(healed, simulation));
+
+        out.println("false positives: " + simulation.getFalsePositives()
+                + ", failures across the partition: " + simulation.getPartitionFailures());
+        out.printf("network: %d packets sent, %d lost, %d dropped by partitions or crashes%n",
+                network.getPacketsSent(), network.getPacketsLost(), network.getPacketsPartitioned());
+        out.printf("simulated %d s in %d ms of wall time, %d events%n",
+                simulation.getTime().now() / 1_000_000_000,
+                (System.nanoTime() - started) / 1_000_000,
+                simulation.getTime().getExecutedTasks());
+
+        simulation.stop();
+        System.setOut(out);
+    }
+
+    private static long crossZoneBytesSent(Simulation simulation) {
+        long sum = 0;
+        for (int i = 0; i < simulation.size(); i++) {
+            sum += simulation.getNode(i).getMetrics().getCrossZoneBytesSent();
+        }
+        return sum;
+    }
+
+    private static String describe(Duration duration, Simulation simulation) {
+        if (duration != null) {
+            return duration.toMillis() + " ms";
+        }
+        long[] errors = simulation.viewErrors();
+        return "never, gave up with " + errors[0] + " live members missing and "
+                + errors[1] + " crashed members alive across all views";
+    }
+}
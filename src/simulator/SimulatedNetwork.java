@@ -0,0 +1,136 @@
+package simulator;
+
+import service.PacketHandler;
+import service.Transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// in memory datagram network on virtual time
+// a send copies the packet and schedules its delivery after a sampled latency, unless the seeded
+// loss drops it, a partition separates the two ends, or the receiver is down. Counts what it
+// carries so the simulation can report traffic per node
+public class SimulatedNetwork {
+    private final VirtualTime time;
+    private final Random random;
+    private final Map<InetSocketAddress, SimulatedTransport> endpoints = new HashMap<>();
+    // partition group per address, members of different groups cannot reach each other
+    private final Map<InetSocketAddress, Integer> groups = new HashMap<>();
+
+    private double lossRate = 0;
+    private LatencyModel latency = LatencyModel.fixed(java.time.Duration.ofMillis(1));
+
+    private long packetsSent = 0;
+    private long bytesSent = 0;
+    private long packetsDelivered = 0;
+    private long packetsLost = 0;
+    private long packetsPartitioned = 0;
+
+    public SimulatedNetwork(VirtualTime time, long seed) {
+        this.time = time;
+        this.random = new Random(seed);
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public void setLatency(LatencyModel latency) {
+        this.latency = latency;
+    }
+
+    public Transport transportFor(InetSocketAddress address) {
+        SimulatedTransport transport = new SimulatedTransport(address);
+        endpoints.put(address, transport);
+        return transport;
+    }
+
+    // puts the address into a partition group, everybody starts in group 0
+    public void setGroup(InetSocketAddress address, int group) {
+        groups.put(address, group);
+    }
+
+    public void heal() {
+        groups.clear();
+    }
+
+    public boolean canReach(InetSocketAddress from, InetSocketAddress to) {
+        return groups.getOrDefault(from, 0).equals(groups.getOrDefault(to, 0));
+    }
+
+    private void send(InetSocketAddress from, InetSocketAddress to, ByteBuffer packet) {
+        int length = packet.remaining();
+        packetsSent++;
+        bytesSent += length;
+        if (!canReach(from, to)) {
+            packetsPartitioned++;
+            return;
+        }
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            packetsLost++;
+            return;
+        }
+        byte[] copy = new byte[length];
+        packet.get(copy);
+        time.after(latency.sampleNanos(random), () -> {
+            SimulatedTransport receiver = endpoints.get(to);
+            // the partition may have started while the packet was in flight
+            if (receiver == null || receiver.handler == null || !canReach(from, to)) {
+                packetsPartitioned++;
+                return;
+            }
+            packetsDelivered++;
+            receiver.handler.onPacket(from, ByteBuffer.wrap(copy));
+        });
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getPacketsDelivered() {
+        return packetsDelivered;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getPacketsPartitioned() {
+        return packetsPartitioned;
+    }
+
+    private class SimulatedTransport implements Transport {
+        private final InetSocketAddress address;
+        // null until started and again once closed, packets to it are then dropped
+        private PacketHandler handler;
+
+        SimulatedTransport(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void start(PacketHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void send(InetSocketAddress target, ByteBuffer packet) {
+            if (handler != null) {
+                SimulatedNetwork.this.send(address, target, packet);
+            }
+        }
+
+        @Override
+        public void close() {
+            handler = null;
+        }
+    }
+}
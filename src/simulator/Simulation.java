@@ -0,0 +1,243 @@
+package simulator;
+
+import config.Config;
+import service.EventDispatcher;
+import service.MembershipEvent;
+import service.NodeManager;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// a whole cluster of real NodeManagers in one thread, on virtual time and a simulated network
+// every node gets its own seeded random and a scheduler handle on the shared VirtualTime, so the
+// same seed replays the same run, message for message. Scenario steps (crash, partition, heal)
+// are plain method calls between runFor()s, and the simulation records what the failure
+// detectors made of them
+public class Simulation {
+    public static final int PORT = 7946;
+
+    private final VirtualTime time = new VirtualTime();
+    private final SimulatedNetwork network;
+    private final Config config;
+    private final Random random;
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+    private final List<NodeManager> nodes = new ArrayList<>();
+    private final Set<Integer> crashed = new HashSet<>();
+    // virtual time each crashed node went down
+    private final Map<InetSocketAddress, Long> crashedAt = new HashMap<>();
+
+    // failure detection latency of every (observer, crashed member) pair seen so far, only the
+    // first detection counts if stale gossip revives the member in between
+    private final List<Long> detectionLatencies = new ArrayList<>();
+    private final Map<InetSocketAddress, Set<InetSocketAddress>> detectedBy = new HashMap<>();
+    // FAILED events about members that were up and reachable from the observer
+    private long falsePositives = 0;
+    // FAILED events about members that were up but partitioned away, expected
+    private long partitionFailures = 0;
+    // the side cut off by the last partition, and when it healed. Heartbeats from across the cut
+    // may keep a member looking alive for a while, so its failure can be noticed after the heal
+    private final Set<InetSocketAddress> cutOff = new HashSet<>();
+    private long healedAt = Long.MIN_VALUE;
+
+    public Simulation(int nodeCount, Config config, long seed) {
+        this(nodeCount, config, seed, node -> { });
+    }
+
+    // setup runs for every node before it starts, e.g. to enable probing or pick a failure detector
+    public Simulation(int nodeCount, Config config, long seed, Consumer<NodeManager> setup) {
+        this.config = config;
+        this.random = new Random(seed);
+        this.network = new SimulatedNetwork(time, random.nextLong());
+        for (int i = 0; i < nodeCount; i++) {
+            InetSocketAddress address = addressOf(i);
+            NodeManager node = new NodeManager(address, config, network.transportFor(address),
+                    time.newScheduler(), new Random(random.nextLong()));
+            // listeners run inline on virtual time, so events carry the virtual time they happened
+            node.setEventDispatcher(new EventDispatcher(4096, Duration.ZERO, false, null, time.newScheduler()));
+            node.addMembershipListener(changes -> {
+                for (MembershipEvent change : changes) {
+                    if (change.getType() == MembershipEvent.Type.FAILED) {
+                        onFailed(address, change);
+                    }
+                }
+            });
+            // every node but the first joins through a random earlier one
+            if (i > 0) {
+                node.addSeed(addresses.get(random.nextInt(i)));
+            }
+            setup.accept(node);
+            addresses.add(address);
+            nodes.add(node);
+        }
+    }
+
+    // 10.x.y.z:7946, distinct for the first 2^24 indexes
+    public static InetSocketAddress addressOf(int index) {
+        byte[] ip = {10, (byte) (index >>> 16), (byte) (index >>> 8), (byte) index};
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(ip), PORT);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void onFailed(InetSocketAddress observer, MembershipEvent change) {
+        Long downSince = crashedAt.get(change.getAddress());
+        if (downSince != null) {
+            if (detectedBy.computeIfAbsent(change.getAddress(), a -> new HashSet<>()).add(observer)) {
+                detectionLatencies.add(change.getTimeNanos() - downSince);
+            }
+        } else if (!network.canReach(observer, change.getAddress())
+                || (cutOff.contains(observer) != cutOff.contains(change.getAddress())
+                        && change.getTimeNanos() - healedAt <= config.nodeFailureTimeout.toNanos())) {
+            partitionFailures++;
+        } else {
+            falsePositives++;
+        }
+    }
+
+    public SimulatedNetwork getNetwork() {
+        return network;
+    }
+
+    public VirtualTime getTime() {
+        return time;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public NodeManager getNode(int index) {
+        return nodes.get(index);
+    }
+
+    // starts every node, spread over one gossip interval so they do not run in lockstep
+    public void start() {
+        long spread = config.updateFrequency.toNanos();
+        for (NodeManager node : nodes) {
+            time.after((long) (random.nextDouble() * spread), node::start);
+        }
+    }
+
+    public void runFor(Duration duration) {
+        time.runFor(duration.toNanos());
+    }
+
+    // runs until every live node sees exactly the live nodes as alive, checking once per gossip
+    // interval. Returns how long that took, or null if it did not happen within the limit
+    public Duration runUntilConverged(Duration limit) {
+        long begin = time.now();
+        long deadline = begin + limit.toNanos();
+        long step = config.updateFrequency.toNanos();
+        while (time.now() < deadline) {
+            time.runFor(step);
+            if (isConverged()) {
+                return Duration.ofNanos(time.now() - begin);
+            }
+        }
+        return null;
+    }
+
+    public boolean isConverged() {
+        long[] errors = viewErrors();
+        return errors[0] == 0 && errors[1] == 0;
+    }
+
+    // summed over the live nodes: live members they do not see as alive, and crashed members
+    // they still see as alive
+    public long[] viewErrors() {
+        Set<InetSocketAddress> live = new HashSet<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!crashed.contains(i)) {
+                live.add(addresses.get(i));
+            }
+        }
+        long missing = 0;
+        long stale = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (crashed.contains(i)) {
+                continue;
+            }
+            int seen = 0;
+            for (InetSocketAddress member : nodes.get(i).getAliveMembers()) {
+                if (live.contains(member)) {
+                    seen++;
+                } else {
+                    stale++;
+                }
+            }
+            missing += live.size() - seen;
+        }
+        return new long[]{missing, stale};
+    }
+
+    // stops the node as if its process died: no goodbye, packets to it are lost from now on
+    public void crash(int index) {
+        if (crashed.add(index)) {
+            nodes.get(index).stop();
+            crashedAt.put(addresses.get(index), time.now());
+        }
+    }
+
+    // crashes count random live nodes, returns their indexes
+    public List<Integer> crashRandom(int count) {
+        List<Integer> victims = new ArrayList<>();
+        while (victims.size() < count && crashed.size() < nodes.size()) {
+            int index = random.nextInt(nodes.size());
+            if (!crashed.contains(index)) {
+                crash(index);
+                victims.add(index);
+            }
+        }
+        return victims;
+    }
+
+    // cuts the nodes from index on off the rest, until heal()
+    public void partition(int index) {
+        cutOff.clear();
+        for (int i = index; i < nodes.size(); i++) {
+            network.setGroup(addresses.get(i), 1);
+            cutOff.add(addresses.get(i));
+        }
+    }
+
+    public void heal() {
+        network.heal();
+        healedAt = time.now();
+    }
+
+    public void stop() {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!crashed.contains(i)) {
+                nodes.get(i).stop();
+            }
+        }
+    }
+
+    public List<Long> getDetectionLatencies() {
+        return detectionLatencies;
+    }
+
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    public long getPartitionFailures() {
+        return partitionFailures;
+    }
+
+    public long getCrashedCount() {
+        return crashed.size();
+    }
+}
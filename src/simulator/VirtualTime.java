@@ -0,0 +1,123 @@
+package simulator;
+
+import timer.Scheduler;
+
+import java.util.PriorityQueue;
+
+// discrete event clock for the simulator
+// nothing sleeps: tasks sit in one queue ordered by due time (and by submission, for ties), and
+// running the simulation pops them in order and moves the clock to each one's time. Everything
+// runs on the caller's thread, so a run is fully determined by the seeds
+public class VirtualTime {
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private long now = 0;
+    private long nextSequence = 0;
+    private long executed = 0;
+
+    private static final class Task implements Comparable<Task> {
+        final long due;
+        final long sequence;
+        final Runnable action;
+
+        Task(long due, long sequence, Runnable action) {
+            this.due = due;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (due != other.due) {
+                return Long.compare(due, other.due);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public void at(long due, Runnable action) {
+        queue.add(new Task(Math.max(due, now), nextSequence++, action));
+    }
+
+    public void after(long delayNanos, Runnable action) {
+        at(now + Math.max(0, delayNanos), action);
+    }
+
+    // runs every task due up to and including the given time, then leaves the clock there
+    public void runUntil(long time) {
+        while (!queue.isEmpty() && queue.peek().due <= time) {
+            Task task = queue.poll();
+            now = task.due;
+            executed++;
+            try {
+                task.action.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        now = Math.max(now, time);
+    }
+
+    public void runFor(long nanos) {
+        runUntil(now + nanos);
+    }
+
+    public long getExecutedTasks() {
+        return executed;
+    }
+
+    // a Scheduler on this clock for one node; shutting it down only stops that node's tasks
+    public Scheduler newScheduler() {
+        return new NodeScheduler();
+    }
+
+    private class NodeScheduler implements Scheduler {
+        private boolean shutdown = false;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            if (shutdown) {
+                return;
+            }
+            after(delayNanos, () -> {
+                if (!shutdown) {
+                    task.run();
+                }
+            });
+        }
+
+        @Override
+        public void scheduleAtFixedRate(Runnable task, long initialDelayNanos, long periodNanos) {
+            if (shutdown) {
+                return;
+            }
+            long first = now + Math.max(0, initialDelayNanos);
+            at(first, new Runnable() {
+                private long next = first;
+
+                @Override
+                public void run() {
+                    if (shutdown) {
+                        return;
+                    }
+                    task.run();
+                    next += periodNanos;
+                    at(next, this);
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+    }
+}
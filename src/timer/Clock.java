@@ -0,0 +1,10 @@
+package timer;
+
+// monotonic time source, System.nanoTime() style nanoseconds
+// everything time based in the protocol reads it through here, so a simulation can swap in
+// virtual time
+public interface Clock {
+    Clock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
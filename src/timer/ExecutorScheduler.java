@@ -0,0 +1,63 @@
+package timer;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// real time Scheduler on one thread of a ScheduledThreadPoolExecutor, which starts the thread
+// with the first task. With ThreadMode.VIRTUAL that thread is a virtual one
+public class ExecutorScheduler implements Scheduler {
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ExecutorScheduler(String threadName, boolean daemon) {
+        this(threadName, daemon, ThreadMode.PLATFORM);
+    }
+
+    public ExecutorScheduler(String threadName, boolean daemon, ThreadMode mode) {
+        executor = new ScheduledThreadPoolExecutor(1, mode.factory(threadName, daemon));
+        // cancelled timeouts should not pile up in the queue
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayNanos) {
+        try {
+            executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    // cancelling removes the task from the queue, see the remove on cancel policy
+    @Override
+    public Timeout scheduleTimeout(Runnable task, long delayNanos) {
+        try {
+            ScheduledFuture<?> future = executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            return () -> future.cancel(false);
+        } catch (RejectedExecutionException e) {
+            // shut down
+            return Timeout.NONE;
+        }
+    }
+
+    @Override
+    public void scheduleAtFixedRate(Runnable task, long initialDelayNanos, long periodNanos) {
+        try {
+            executor.scheduleAtFixedRate(task, initialDelayNanos, periodNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,49 @@
+package timer;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// see Scheduler.scheduleWithJitter
+// every run is due one period after the previous run was due, plus a fresh random jitter. The
+// jitter of one run does not move the next, so the rate stays exact. The period is read again
+// after every run, so a controller can change it on the fly. Runs that are overdue by more than
+// a period are skipped rather than run back to back
+final class JitteredTask implements Runnable {
+    private final Scheduler scheduler;
+    private final Runnable task;
+    private final LongSupplier periodNanos;
+    private final long jitterNanos;
+    private final Random random;
+    // when the next run is due, without its jitter
+    private long due;
+
+    JitteredTask(Scheduler scheduler, Runnable task, long initialDelayNanos, LongSupplier periodNanos,
+                 long jitterNanos, Random random) {
+        this.scheduler = scheduler;
+        this.task = task;
+        this.due = scheduler.nanoTime() + initialDelayNanos;
+        this.periodNanos = periodNanos;
+        this.jitterNanos = Math.max(0, jitterNanos);
+        this.random = random;
+    }
+
+    void scheduleNext() {
+        long now = scheduler.nanoTime();
+        long period = periodNanos.getAsLong();
+        if (now - due > period) {
+            due += (now - due) / period * period;
+        }
+        long jitter = jitterNanos == 0 ? 0 : (long) (random.nextDouble() * Math.min(jitterNanos, period));
+        scheduler.schedule(this, Math.max(0, due + jitter - now));
+    }
+
+    @Override
+    public void run() {
+        try {
+            task.run();
+        } finally {
+            due += periodNanos.getAsLong();
+            scheduleNext();
+        }
+    }
+}
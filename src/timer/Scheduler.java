@@ -0,0 +1,44 @@
+package timer;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+// runs the protocol's timed work: gossip rounds, probes and their timeouts, failure detection
+// nanoTime() is the clock those tasks should read, so real and virtual time never mix
+public interface Scheduler extends Clock {
+    // runs the task once after the delay
+    void schedule(Runnable task, long delayNanos);
+
+    // same, for a timeout that is usually called off before it is due. This one only skips the
+    // task when it comes up, schedulers that can take it out of their queue do so
+    default Timeout scheduleTimeout(Runnable task, long delayNanos) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        schedule(() -> {
+            if (!cancelled.get()) {
+                task.run();
+            }
+        }, delayNanos);
+        return () -> cancelled.set(true);
+    }
+
+    // runs the task every period, measured from the first run so rounds do not drift
+    void scheduleAtFixedRate(Runnable task, long initialDelayNanos, long periodNanos);
+
+    // like scheduleAtFixedRate, but every run starts up to jitterNanos late, at random, so nodes
+    // that started together do not keep sending in the same instant. The jitter never adds up
+    // to drift, see JitteredTask
+    default void scheduleWithJitter(Runnable task, long initialDelayNanos, long periodNanos,
+                                    long jitterNanos, Random random) {
+        scheduleWithJitter(task, initialDelayNanos, () -> periodNanos, jitterNanos, random);
+    }
+
+    // same, with a period that is asked for again after every run
+    default void scheduleWithJitter(Runnable task, long initialDelayNanos, LongSupplier periodNanos,
+                                    long jitterNanos, Random random) {
+        new JitteredTask(this, task, initialDelayNanos, periodNanos, jitterNanos, random).scheduleNext();
+    }
+
+    // stops running tasks, anything scheduled afterwards is ignored
+    void shutdown();
+}
@@ -0,0 +1,65 @@
+package timer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+// what kind of threads the node's long running loops get
+// PLATFORM: one OS thread each, works on any JVM
+// VIRTUAL: virtual threads (JDK 21+), so hundreds of nodes in one process, each with a timer and a
+// blocking receive loop, share a handful of carrier threads. Virtual threads are always daemons:
+// nodes running on them do not keep the JVM alive on their own
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    // Thread.ofVirtual(), looked up reflectively so the library still builds and runs on JDK 11
+    private static final Method OF_VIRTUAL = lookup("ofVirtual");
+
+    private static Method lookup(String name) {
+        try {
+            return Thread.class.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isVirtualAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    // VIRTUAL where the JVM has virtual threads, PLATFORM otherwise
+    public static ThreadMode best() {
+        return isVirtualAvailable() ? VIRTUAL : PLATFORM;
+    }
+
+    // threads with the given name, daemon only matters for platform threads
+    public ThreadFactory factory(String name, boolean daemon) {
+        if (this == PLATFORM) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(daemon);
+                return thread;
+            };
+        }
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer, this is "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            // Thread.ofVirtual().name(name).factory()
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Could not create virtual threads", e);
+        }
+    }
+
+    // starts the task on a new thread of this mode
+    public Thread start(String name, boolean daemon, Runnable task) {
+        Thread thread = factory(name, daemon).newThread(task);
+        thread.start();
+        return thread;
+    }
+}
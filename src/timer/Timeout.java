@@ -0,0 +1,10 @@
+package timer;
+
+// a task scheduled to run once, that can still be called off, see Scheduler.scheduleTimeout
+public interface Timeout {
+    Timeout NONE = () -> {
+    };
+
+    // the task will not run if it has not started yet, safe to call more than once
+    void cancel();
+}
@@ -0,0 +1,201 @@
+package timer;
+
+import java.util.List;
+
+// hashed hierarchical timing wheel (Varghese and Lauck), in the style of the Linux kernel timers
+// four wheels of 256, 64, 64 and 64 slots. A deadline goes into the finest wheel that covers it,
+// and when a finer wheel wraps around the matching slot of the next wheel is spread back down.
+// Scheduling, rescheduling and cancelling are O(1), and advancing the clock only touches the slots
+// that actually passed plus the entries that expired, however many entries are waiting
+//
+// every item owns one Entry, allocated once and rescheduled in place, so a busy wheel does not
+// allocate. Deadlines are System.nanoTime() style nanoseconds. Thread safe, callers typically
+// reschedule from receive threads while one thread advances
+public class TimingWheel<T> {
+    private static final int[] BITS = {8, 6, 6, 6};
+    private static final int LEVELS = BITS.length;
+    // 8 + 6 + 6 + 6, deadlines further out are parked in the last wheel and placed again later
+    private static final int TOTAL_BITS = 26;
+
+    public static final class Entry<T> {
+        private final T item;
+        private long deadlineNanos;
+        private Entry<T> prev;
+        private Entry<T> next;
+        private int level = -1;
+        private int slot = -1;
+
+        public Entry(T item) {
+            this.item = item;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Entry<T>[][] slots;
+    private long currentTick = 0;
+    private int size = 0;
+
+    public TimingWheel(long tickNanos, long startNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive, got " + tickNanos);
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+        slots = newWheels(LEVELS);
+        for (int level = 0; level < LEVELS; level++) {
+            slots[level] = newSlots(1 << BITS[level]);
+        }
+    }
+
+    // generic arrays cannot be created directly, these are only ever filled with Entry<T>
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Entry<T>[][] newWheels(int levels) {
+        return new Entry[levels][];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Entry<T>[] newSlots(int slots) {
+        return new Entry[slots];
+    }
+
+    // (re)schedules the entry, replacing whatever deadline it had
+    public synchronized void schedule(Entry<T> entry, long deadlineNanos) {
+        if (entry.isScheduled()) {
+            unlink(entry);
+        } else {
+            size++;
+        }
+        entry.deadlineNanos = deadlineNanos;
+        place(entry);
+    }
+
+    public synchronized void cancel(Entry<T> entry) {
+        if (entry.isScheduled()) {
+            unlink(entry);
+            size--;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // moves the wheel forward to now and adds the items of every expired entry to the list
+    // expired entries are no longer scheduled; the caller handles them (and may reschedule them)
+    // after this returns, so slow handlers never run while the wheel is locked
+    public synchronized void advance(long nowNanos, List<T> expired) {
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        while (currentTick < targetTick) {
+            currentTick++;
+            if ((currentTick & mask(0)) == 0) {
+                cascade(1);
+            }
+            int slot = (int) (currentTick & mask(0));
+            Entry<T> entry = slots[0][slot];
+            slots[0][slot] = null;
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                entry.prev = null;
+                entry.next = null;
+                entry.level = -1;
+                entry.slot = -1;
+                size--;
+                expired.add(entry.item);
+                entry = next;
+            }
+        }
+    }
+
+    // spreads the current slot of a coarser wheel over the finer ones, wrapping upwards first
+    private void cascade(int level) {
+        int slot = (int) ((currentTick >>> shift(level)) & mask(level));
+        if (slot == 0 && level + 1 < LEVELS) {
+            cascade(level + 1);
+        }
+        Entry<T> entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+            Entry<T> next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        long offset = entry.deadlineNanos - startNanos;
+        if (entry.deadlineNanos > startNanos && offset < 0) {
+            // saturate deadlines at the far end of the range instead of wrapping around
+            offset = Long.MAX_VALUE;
+        }
+        long deadlineTick = ceilDiv(offset, tickNanos);
+        // a deadline that already passed fires on the next tick
+        if (deadlineTick < currentTick) {
+            deadlineTick = currentTick + 1;
+        }
+        long delta = deadlineTick - currentTick;
+        if (delta >= (1L << TOTAL_BITS)) {
+            deadlineTick = currentTick + (1L << TOTAL_BITS) - 1;
+            delta = deadlineTick - currentTick;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (shift(level) + BITS[level]))) {
+            level++;
+        }
+        int slot = (int) ((deadlineTick >>> shift(level)) & mask(level));
+        entry.level = level;
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = slots[level][slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[level][slot] = entry;
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.level = -1;
+        entry.slot = -1;
+    }
+
+    private static int shift(int level) {
+        int shift = 0;
+        for (int i = 0; i < level; i++) {
+            shift += BITS[i];
+        }
+        return shift;
+    }
+
+    private static long mask(int level) {
+        return (1L << BITS[level]) - 1;
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        long quotient = Math.floorDiv(value, divisor);
+        return quotient * divisor == value ? quotient : quotient + 1;
+    }
+}
@@ -0,0 +1,70 @@
+package node;
+
+import config.Config;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class MemberTableTest {
+    private static final Config CONFIG = new Config(Duration.ofSeconds(5), Duration.ofSeconds(10),
+            Duration.ofMillis(500), Duration.ofMillis(500), 3);
+
+    private static InetSocketAddress address(int i) {
+        return new InetSocketAddress("10.0." + (i >> 8) + "." + (i & 0xff), 7000);
+    }
+
+    // 5 slots used to grow to 10 with a 20 entry index, which the probe mask cannot walk
+    @Test
+    void growsFromCapacityThatIsNotAPowerOfTwo() {
+        for (int capacity : new int[] {3, 5, 6, 7, 12, 100}) {
+            MemberTable table = new MemberTable(capacity);
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                for (int i = 0; i < 1000; i++) {
+                    assertNotNull(table.add(address(i), i, CONFIG));
+                }
+            });
+            assertEquals(1000, table.size());
+            for (int i = 0; i < 1000; i++) {
+                Node node = table.get(NodeId.of(address(i)));
+                assertNotNull(node);
+                assertEquals(i, node.getSequenceNumber());
+            }
+            assertNull(table.get(NodeId.of(address(1000))));
+        }
+    }
+
+    @Test
+    void rejectsDuplicates() {
+        MemberTable table = new MemberTable(5);
+        assertNotNull(table.add(address(1), 1, CONFIG));
+        assertNull(table.add(address(1), 2, CONFIG));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void removedNodeKeepsItsValues() {
+        MemberTable table = new MemberTable(5);
+        Node removed = table.add(address(1), 7, CONFIG);
+        removed.updateIncarnation(3);
+        assertTrue(table.remove(removed));
+        assertFalse(table.remove(removed));
+        assertFalse(table.contains(removed));
+
+        // the next member gets the freed slot, the removed view still reads its own values
+        Node next = table.add(address(2), 42, CONFIG);
+        assertSame(next, table.get(NodeId.of(address(2))));
+        assertEquals(7, removed.getSequenceNumber());
+        assertEquals(3, removed.getIncarnation());
+        assertEquals(42, next.getSequenceNumber());
+        assertEquals(0, next.getIncarnation());
+    }
+}